@@ -0,0 +1,123 @@
+package com.example.excel;
+
+import org.dhatim.fastexcel.writer.StyleSetter;
+import org.dhatim.fastexcel.writer.Worksheet;
+
+/**
+ * The handful of distinct cell styles used by the PKP export, defined once.
+ *
+ * Applying a style is a constant lookup; fastexcel de-duplicates identical styles per
+ * workbook, so every cell using the same constant shares a single entry in styles.xml.
+ * RAG (red/amber/green) classification via {@link #rag(String)} does not allocate.
+ */
+public enum CellStyle {
+
+    /** PKP name at the top of the summary sheet. */
+    TITLE {
+        @Override
+        StyleSetter configure(StyleSetter setter) {
+            return setter.bold().fontSize(14);
+        }
+    },
+    HEADER {
+        @Override
+        StyleSetter configure(StyleSetter setter) {
+            return setter.bold();
+        }
+    },
+    HEADER_WRAPPED {
+        @Override
+        StyleSetter configure(StyleSetter setter) {
+            return setter.bold().wrapText(true);
+        }
+    },
+    WRAPPED {
+        @Override
+        StyleSetter configure(StyleSetter setter) {
+            return setter.wrapText(true);
+        }
+    },
+    /** Native date cells, see {@link SheetSchema#excelSerial}. */
+    DATE {
+        @Override
+        StyleSetter configure(StyleSetter setter) {
+            return setter.format(DATE_FORMAT);
+        }
+    },
+    RAG_RED {
+        @Override
+        StyleSetter configure(StyleSetter setter) {
+            return setter.wrapText(true).fontColor(RED_RGB);
+        }
+    },
+    RAG_AMBER {
+        @Override
+        StyleSetter configure(StyleSetter setter) {
+            return setter.wrapText(true).fontColor(AMBER_RGB);
+        }
+    },
+    RAG_GREEN {
+        @Override
+        StyleSetter configure(StyleSetter setter) {
+            return setter.wrapText(true).fontColor(GREEN_RGB);
+        }
+    },
+    /** Any value that is not red/amber/green. */
+    RAG_BLACK {
+        @Override
+        StyleSetter configure(StyleSetter setter) {
+            return setter.wrapText(true).fontColor(BLACK_RGB);
+        }
+    };
+
+    static final String RED_RGB = "FF0000";
+    static final String AMBER_RGB = "FFC000";
+    static final String GREEN_RGB = "00B050";
+    static final String BLACK_RGB = "000000";
+    static final String DATE_FORMAT = "yyyy-mm-dd";
+
+    abstract StyleSetter configure(StyleSetter setter);
+
+    public void apply(Worksheet sheet, int row, int col) {
+        configure(sheet.style(row, col)).set();
+    }
+
+    /**
+     * Styles the inclusive block {@code top..bottom} x {@code left..right} with one range call,
+     * e.g. a whole header row or a column band.
+     */
+    public void apply(Worksheet sheet, int top, int left, int bottom, int right) {
+        configure(sheet.range(top, left, bottom, right).style()).set();
+    }
+
+    /**
+     * Maps a RAG status to its style, ignoring case and surrounding whitespace,
+     * without trimming or lowercasing the value.
+     */
+    public static CellStyle rag(String value) {
+        if (value == null) {
+            return RAG_BLACK;
+        }
+        int start = 0;
+        int end = value.length();
+        while (start < end && Character.isWhitespace(value.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(value.charAt(end - 1))) {
+            end--;
+        }
+        int length = end - start;
+        if (length == 3 && value.regionMatches(true, start, "red", 0, 3)) {
+            return RAG_RED;
+        }
+        if (length == 5) {
+            if (value.regionMatches(true, start, "amber", 0, 5)) {
+                return RAG_AMBER;
+            }
+            if (value.regionMatches(true, start, "green", 0, 5)) {
+                return RAG_GREEN;
+            }
+        }
+        return RAG_BLACK;
+    }
+}
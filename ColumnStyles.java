@@ -0,0 +1,63 @@
+package com.example.excel;
+
+import org.dhatim.fastexcel.writer.Worksheet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Column-level styles for the data rows of a worksheet, declared once per sheet.
+ *
+ * Instead of styling every cell as it is written, the writer applies each column band
+ * to the whole block of rows written since the last flush with a single range call.
+ * Instances are built once (typically as constants) and are read-only afterwards.
+ */
+public final class ColumnStyles {
+
+    public static final ColumnStyles NONE = new ColumnStyles();
+
+    private final List<Band> bands = new ArrayList<>();
+
+    public static ColumnStyles of() {
+        return new ColumnStyles();
+    }
+
+    public ColumnStyles column(int col, CellStyle style) {
+        return columns(col, col, style);
+    }
+
+    /**
+     * Styles the inclusive column range {@code firstCol..lastCol}.
+     */
+    public ColumnStyles columns(int firstCol, int lastCol, CellStyle style) {
+        if (firstCol < 0 || lastCol < firstCol) {
+            throw new IllegalArgumentException("Invalid column range " + firstCol + ".." + lastCol);
+        }
+        bands.add(new Band(firstCol, lastCol, style));
+        return this;
+    }
+
+    /**
+     * Applies every band to rows {@code firstRow..lastRow} (inclusive); no-op for an empty block.
+     */
+    public void apply(Worksheet sheet, int firstRow, int lastRow) {
+        if (lastRow < firstRow) {
+            return;
+        }
+        for (Band band : bands) {
+            band.style.apply(sheet, firstRow, band.firstCol, lastRow, band.lastCol);
+        }
+    }
+
+    private static final class Band {
+        final int firstCol;
+        final int lastCol;
+        final CellStyle style;
+
+        Band(int firstCol, int lastCol, CellStyle style) {
+            this.firstCol = firstCol;
+            this.lastCol = lastCol;
+            this.style = style;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * A comment to post on one Jira issue.
+ */
+public final class CommentRequest {
+
+    private final String issueKey;
+    private final String comment;
+    private final String idempotencyKey;
+
+    public CommentRequest(String issueKey, String comment) {
+        this(issueKey, comment, null);
+    }
+
+    public CommentRequest(String issueKey, String comment, String idempotencyKey) {
+        this.issueKey = issueKey;
+        this.comment = comment;
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public String getIssueKey() {
+        return issueKey;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    /** Key stored with the comment to detect redelivery, or {@code null}. */
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+}
@@ -0,0 +1,141 @@
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+/**
+ * Outcome of posting one Jira comment.
+ */
+public final class CommentResult {
+
+    /** Status code used when no HTTP response was received. */
+    public static final int NO_RESPONSE = -1;
+
+    private final String issueKey;
+    private final int statusCode;
+    private final String commentId;
+    private final String responseBody;
+    private final long retryAfterMillis;
+    private final int attempts;
+    private final Throwable error;
+
+    public CommentResult(String issueKey, int statusCode, String commentId, String responseBody) {
+        this(issueKey, statusCode, commentId, responseBody, -1, 1, null);
+    }
+
+    CommentResult(String issueKey, int statusCode, String commentId, String responseBody,
+                  long retryAfterMillis, int attempts, Throwable error) {
+        this.issueKey = issueKey;
+        this.statusCode = statusCode;
+        this.commentId = commentId;
+        this.responseBody = responseBody;
+        this.retryAfterMillis = retryAfterMillis;
+        this.attempts = attempts;
+        this.error = error;
+    }
+
+    /**
+     * Result for a request that never got a response (I/O error, interruption, ...).
+     */
+    static CommentResult failed(String issueKey, Throwable error, int attempts) {
+        return new CommentResult(issueKey, NO_RESPONSE, null, null, -1, attempts, error);
+    }
+
+    /**
+     * Result for a comment found on the issue by its idempotency key after an attempt whose
+     * outcome was unknown; reported as HTTP 200 without a response body.
+     */
+    static CommentResult existing(String issueKey, String commentId, int attempts) {
+        return new CommentResult(issueKey, 200, commentId, null, -1, attempts, null);
+    }
+
+    CommentResult withAttempts(int attempts) {
+        return new CommentResult(issueKey, statusCode, commentId, responseBody, retryAfterMillis, attempts, error);
+    }
+
+    public String getIssueKey() {
+        return issueKey;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /** Id of the created comment, {@code null} unless the request succeeded. */
+    public String getCommentId() {
+        return commentId;
+    }
+
+    public String getResponseBody() {
+        return responseBody;
+    }
+
+    /** Delay requested by the server's {@code Retry-After} header, -1 if absent. */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /** Number of HTTP attempts made, including retries. */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /** Cause when no response was received, otherwise {@code null}. */
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * Whether the comment can be posted again as is: Jira throttled it (429) or the request
+     * never left the client (connect failure, connection pool timeout).
+     */
+    public boolean isRetryable() {
+        return statusCode == 429 || (statusCode == NO_RESPONSE && notSent(error));
+    }
+
+    /**
+     * Whether the comment may or may not have been created: a read timeout, a dropped
+     * connection or a gateway error (502-504) after the request was sent. Posting again
+     * could duplicate it, so it must first be looked up by its idempotency key.
+     */
+    public boolean isOutcomeUnknown() {
+        if (statusCode == 502 || statusCode == 503 || statusCode == 504) {
+            return true;
+        }
+        return statusCode == NO_RESPONSE && error != null
+                && !(error instanceof InterruptedException) && !notSent(error);
+    }
+
+    /**
+     * Whether Jira is overloaded: it throttled the request (429), is unavailable (503), its
+     * gateway timed out (504) or the connection or read timed out. A pool timeout does not
+     * count, since it only reflects the client's own limit.
+     */
+    public boolean isCongested() {
+        if (statusCode == 429 || statusCode == 503 || statusCode == 504) {
+            return true;
+        }
+        return statusCode == NO_RESPONSE
+                && (error instanceof SocketTimeoutException || error instanceof ConnectTimeoutException)
+                && !(error instanceof ConnectionPoolTimeoutException);
+    }
+
+    private static boolean notSent(Throwable error) {
+        // ConnectTimeoutException covers ConnectionPoolTimeoutException
+        return error instanceof ConnectException || error instanceof ConnectTimeoutException
+                || error instanceof NoRouteToHostException || error instanceof UnknownHostException;
+    }
+
+    @Override
+    public String toString() {
+        return "CommentResult{issueKey=" + issueKey + ", statusCode=" + statusCode + ", commentId=" + commentId
+                + ", attempts=" + attempts + (error == null ? "" : ", error=" + error) + "}";
+    }
+}
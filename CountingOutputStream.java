@@ -0,0 +1,41 @@
+package com.example.excel;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Pass-through stream that counts the bytes written to {@code out}.
+ * Use {@link #nullStream()} to measure output size without keeping it.
+ */
+public class CountingOutputStream extends FilterOutputStream {
+
+    private long count;
+
+    public CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * Counts and discards everything written to it.
+     */
+    public static CountingOutputStream nullStream() {
+        return new CountingOutputStream(OutputStream.nullOutputStream());
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+}
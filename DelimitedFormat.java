@@ -0,0 +1,41 @@
+package com.example.excel;
+
+/**
+ * Plain-text formats of the delimited export, see {@link ExcelService#writeDelimited}.
+ *
+ * Both quote fields RFC 4180 style (double quotes, embedded quotes doubled) when they contain
+ * the delimiter, a quote or a line break; TSV simply uses a tab as the delimiter.
+ */
+public enum DelimitedFormat {
+
+    CSV((byte) ',', "\r\n", "text/csv", ".csv"),
+    TSV((byte) '\t', "\n", "text/tab-separated-values", ".tsv");
+
+    private final byte delimiter;
+    private final String lineEnding;
+    private final String contentType;
+    private final String extension;
+
+    DelimitedFormat(byte delimiter, String lineEnding, String contentType, String extension) {
+        this.delimiter = delimiter;
+        this.lineEnding = lineEnding;
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public byte getDelimiter() {
+        return delimiter;
+    }
+
+    public String getLineEnding() {
+        return lineEnding;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+}
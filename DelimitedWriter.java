@@ -0,0 +1,238 @@
+package com.example.excel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+
+/**
+ * Buffered CSV/TSV writer that encodes straight into a byte buffer.
+ *
+ * Strings are UTF-8 encoded char by char, ints and dates are written as digits, so writing a
+ * field allocates nothing (non-integral numbers are the exception, they go through
+ * {@link Double#toString}). The buffer is pushed to the underlying stream whenever it fills up
+ * and on {@link #flush()}; the stream itself is never flushed or closed by this class.
+ * Not thread-safe.
+ */
+public final class DelimitedWriter {
+
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /** Worst case bytes per char: a 3-byte UTF-8 sequence (surrogate pairs take 4 for 2 chars). */
+    private static final int MAX_BYTES_PER_CHAR = 3;
+    private static final byte QUOTE = '"';
+
+    private final OutputStream out;
+    private final byte delimiter;
+    private final byte[] lineEnding;
+    private final byte[] buffer;
+    private int position;
+    private boolean rowStarted;
+
+    public DelimitedWriter(OutputStream out, DelimitedFormat format) {
+        this(out, format, DEFAULT_BUFFER_SIZE);
+    }
+
+    public DelimitedWriter(OutputStream out, DelimitedFormat format, int bufferSize) {
+        if (bufferSize < 64) {
+            throw new IllegalArgumentException("bufferSize too small: " + bufferSize);
+        }
+        this.out = out;
+        this.delimiter = format.getDelimiter();
+        this.lineEnding = format.getLineEnding().getBytes();
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Writes a text field, quoting it if needed; {@code null} is written as an empty field.
+     */
+    public DelimitedWriter field(String value) throws IOException {
+        separate();
+        if (value == null || value.isEmpty()) {
+            return this;
+        }
+        boolean quote = needsQuoting(value);
+        if (quote) {
+            put(QUOTE);
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (position + MAX_BYTES_PER_CHAR + 1 > buffer.length) {
+                drain();
+            }
+            if (c < 0x80) {
+                if (c == '"') {
+                    buffer[position++] = QUOTE;
+                }
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (cp >> 18));
+                buffer[position++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        if (quote) {
+            put(QUOTE);
+        }
+        return this;
+    }
+
+    public DelimitedWriter field(int value) throws IOException {
+        separate();
+        putLong(value);
+        return this;
+    }
+
+    public DelimitedWriter field(long value) throws IOException {
+        separate();
+        putLong(value);
+        return this;
+    }
+
+    /**
+     * Writes a number; {@code null} is written as an empty field.
+     */
+    public DelimitedWriter field(Number value) throws IOException {
+        separate();
+        if (value == null) {
+            return this;
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            putLong(value.longValue());
+            return this;
+        }
+        double d = value.doubleValue();
+        if (d == Math.rint(d) && Math.abs(d) < 1e15) {
+            putLong((long) d);
+        } else {
+            putAscii(Double.toString(d));
+        }
+        return this;
+    }
+
+    /**
+     * Writes an ISO-8601 date ({@code yyyy-MM-dd}); {@code null} is written as an empty field.
+     */
+    public DelimitedWriter field(LocalDate value) throws IOException {
+        separate();
+        if (value == null) {
+            return this;
+        }
+        int year = value.getYear();
+        if (year < 0 || year > 9999) {
+            putAscii(value.toString());
+            return this;
+        }
+        ensure(10);
+        put4(year);
+        buffer[position++] = '-';
+        put2(value.getMonthValue());
+        buffer[position++] = '-';
+        put2(value.getDayOfMonth());
+        return this;
+    }
+
+    public void endRow() throws IOException {
+        ensure(lineEnding.length);
+        System.arraycopy(lineEnding, 0, buffer, position, lineEnding.length);
+        position += lineEnding.length;
+        rowStarted = false;
+    }
+
+    /**
+     * Pushes buffered bytes to the underlying stream (without flushing that stream).
+     */
+    public void flush() throws IOException {
+        drain();
+    }
+
+    private void separate() throws IOException {
+        if (rowStarted) {
+            put(delimiter);
+        }
+        rowStarted = true;
+    }
+
+    private boolean needsQuoting(String value) {
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            if (c == delimiter || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void putLong(long value) throws IOException {
+        ensure(20);
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                putAscii(Long.toString(value));
+                return;
+            }
+            buffer[position++] = '-';
+            value = -value;
+        }
+        // Write digits backwards into place
+        int digits = 1;
+        for (long v = value / 10; v != 0; v /= 10) {
+            digits++;
+        }
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        position = end;
+    }
+
+    private void put4(int value) {
+        buffer[position++] = (byte) ('0' + value / 1000);
+        buffer[position++] = (byte) ('0' + (value / 100) % 10);
+        buffer[position++] = (byte) ('0' + (value / 10) % 10);
+        buffer[position++] = (byte) ('0' + value % 10);
+    }
+
+    private void put2(int value) {
+        buffer[position++] = (byte) ('0' + value / 10);
+        buffer[position++] = (byte) ('0' + value % 10);
+    }
+
+    private void putAscii(String value) throws IOException {
+        ensure(value.length());
+        for (int i = 0, n = value.length(); i < n; i++) {
+            buffer[position++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        if (position == buffer.length) {
+            drain();
+        }
+        buffer[position++] = b;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (position + bytes > buffer.length) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
@@ -4,17 +4,218 @@ import org.dhatim.fastexcel.writer.Workbook;
 import org.dhatim.fastexcel.writer.Worksheet;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
-import java.awt.Color;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 @Service
 public class ExcelService {
 
+    /** Tabular sheets of the workbook, in sheet order after the PKP sheet. */
+    private static final List<SheetSchema<?>> DETAIL_SHEETS = Collections.unmodifiableList(Arrays.asList(
+            ExportSchemas.PKP_DETAILS,
+            ExportSchemas.PKS_DETAILS,
+            ExportSchemas.CAR_RESULTS,
+            ExportSchemas.EXCLUDED_CARS,
+            ExportSchemas.CAR_THRESHOLDS));
+
+    /** Empty row of the PKP sheet that holds the style registration cells, see {@link #registerStyles}. */
+    private static final int STYLE_REGISTRATION_ROW = 2;
+
+    /** Datasets of the delimited export, in the order of the workbook's sheets. */
+    public static final List<String> DELIMITED_DATASETS = Collections.unmodifiableList(Arrays.asList(
+            ExportSchemas.PKP_SUMMARY.getSheetName(),
+            ExportSchemas.PKP_DETAILS.getSheetName(),
+            ExportSchemas.PKS_DETAILS.getSheetName(),
+            ExportSchemas.CAR_RESULTS.getSheetName(),
+            ExportSchemas.EXCLUDED_CARS.getSheetName(),
+            ExportSchemas.CAR_THRESHOLDS.getSheetName()));
+
+    private volatile FlushPolicy flushPolicy = FlushPolicy.defaults();
+
+    /** Non-null when the worksheets are generated in parallel. */
+    private volatile ExecutorService sheetExecutor;
+
+    /** Non-null when finished workbooks are cached, see {@link #generateExcelCached}. */
+    private volatile ReportCache reportCache;
+
+    /** Non-null when rendered detail sheets are cached, see {@link #generateExcelIncremental}. */
+    private volatile SheetFragmentCache sheetFragmentCache;
+
+    /** Non-null when synchronous exports are admitted against a heap budget. */
+    private volatile ExportAdmission exportAdmission;
+
+    /** Non-null when exports are instrumented. */
+    private volatile ExportMetrics exportMetrics;
+
+    /** Non-null when workbook responses are written through pooled buffers. */
+    private volatile OutputBuffers outputBuffers;
+
+    /** Deflate level of the workbook parts; {@code null} keeps fastexcel's default. */
+    private volatile Integer compressionLevel;
+
+    private volatile boolean renderToTempFile;
+
+    /** Renders the workbooks of a batch export, created on first use; see {@link #setBatchParallelism}. */
+    private ExecutorService batchExecutor;
+    private int batchParallelism = 2;
+
+    /**
+     * Controls how often the detail sheets push buffered rows to the response stream.
+     * Use {@link FlushPolicy#NEVER} to keep whole worksheets in memory until the end.
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
+    public void setReportCache(ReportCache reportCache) {
+        this.reportCache = reportCache;
+    }
+
+    /**
+     * Admits every workbook render (direct, incremental, cache misses, each workbook of a batch
+     * and {@link ExportJobService} jobs) against the heap budget of {@code exportAdmission};
+     * downloads that cannot be admitted are answered with 503 and {@code Retry-After}, batch
+     * workbooks and jobs fail with {@link ExportRejectedException}.
+     */
+    public void setExportAdmission(ExportAdmission exportAdmission) {
+        this.exportAdmission = exportAdmission;
+    }
+
+    public void setSheetFragmentCache(SheetFragmentCache sheetFragmentCache) {
+        this.sheetFragmentCache = sheetFragmentCache;
+    }
+
+    /**
+     * Buffers workbook responses in large buffers taken from {@code outputBuffers}, so the
+     * servlet stream sees few large writes instead of many small ones. The periodic sheet
+     * flushes of the {@link FlushPolicy} still reach the client; with
+     * {@link #setRenderToTempFile} they are ignored until the file is complete.
+     */
+    public void setOutputBuffers(OutputBuffers outputBuffers) {
+        this.outputBuffers = outputBuffers;
+    }
+
+    /**
+     * Deflate level of every workbook, from {@link Deflater#BEST_SPEED} (least CPU) to
+     * {@link Deflater#BEST_COMPRESSION} (fewest bytes), or {@link Deflater#DEFAULT_COMPRESSION}.
+     * The output size per export is visible in {@link ExportMetrics}.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Renders workbook responses into a temporary file first and sends them with a
+     * {@code Content-Length}, so clients see download progress and the connection is not
+     * held while the rows are loaded. Costs a disk write and delays the first byte.
+     */
+    public void setRenderToTempFile(boolean renderToTempFile) {
+        this.renderToTempFile = renderToTempFile;
+    }
+
+    /**
+     * Enables per-export and per-sheet timings, row counts, output bytes and allocation metrics.
+     */
+    public void setExportMetrics(ExportMetrics exportMetrics) {
+        this.exportMetrics = exportMetrics;
+    }
+
+    /**
+     * Generates the six worksheets concurrently on a bounded pool of {@code threads} threads.
+     * {@code 1} (the default) builds them one after another on the request thread.
+     *
+     * In parallel mode each worksheet is buffered in memory until it is complete, so this
+     * trades heap for latency; periodic flushing only applies to sequential generation.
+     */
+    public synchronized void setSheetParallelism(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        ExecutorService previous = sheetExecutor;
+        sheetExecutor = (threads == 1) ? null : Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "excel-sheet-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Number of workbooks a batch export renders concurrently (default 2). Each one in flight
+     * holds its input and, with sheet parallelism, its buffered sheets in memory.
+     */
+    public synchronized void setBatchParallelism(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        batchParallelism = threads;
+        if (batchExecutor != null) {
+            batchExecutor.shutdown();
+            batchExecutor = null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ExecutorService executor = sheetExecutor;
+        if (executor != null) {
+            executor.shutdown();
+        }
+        synchronized (this) {
+            if (batchExecutor != null) {
+                batchExecutor.shutdown();
+            }
+        }
+    }
+
     public void generateExcel(
             PkpPdf pkpPdf,
             List<PksPdf> pksPdfList,
@@ -25,49 +226,828 @@ public class ExcelService {
             List<CarThresholds> carThresholdsList,
             HttpServletResponse response
     ) throws IOException {
+        generateExcel(pkpPdf, pksPdfList,
+                RowSource.of(pkpResultsList),
+                RowSource.of(pksDetailsList),
+                RowSource.of(carResultsList),
+                RowSource.of(excludedCarsList),
+                RowSource.of(carThresholdsList),
+                response);
+    }
 
-        // Construct file name based on pkp_name + pkp_date
-        String dateString = (pkpPdf.getPkp_date() != null)
-                ? pkpPdf.getPkp_date().format(DateTimeFormatter.ISO_DATE)
-                : "unknown_date";
-        String fileName = pkpPdf.getPkp_name() + "_" + dateString + ".xlsx";
+    /**
+     * Streaming variant: every detail sheet pulls its rows from a {@link RowSource} and writes
+     * them one at a time, so large exports never need the full row set on the heap.
+     * All sources are closed before this method returns.
+     */
+    public void generateExcel(
+            PkpPdf pkpPdf,
+            List<PksPdf> pksPdfList,
+            RowSource<PkpResults> pkpResults,
+            RowSource<KrfResult> pksDetails,
+            RowSource<CarResults> carResults,
+            RowSource<ExcludedCars> excludedCars,
+            RowSource<CarThresholds> carThresholds,
+            HttpServletResponse response
+    ) throws IOException {
+        generateExcel(new ExportInput(pkpPdf, pksPdfList,
+                pkpResults, pksDetails, carResults, excludedCars, carThresholds), response);
+    }
 
-        response.setContentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-        response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+    public void generateExcel(ExportInput input, HttpServletResponse response) throws IOException {
+        ExportAdmission.Permit permit = admit(input, response);
+        if (permit == null) {
+            return;
+        }
+
+        try (ExportAdmission.Permit p = permit) {
+            setDownloadHeaders(response, input.getPkpPdf());
+            sendWorkbook(response, out -> writeWorkbook(out, input, ExportListener.NONE));
+        }
+    }
 
-        try (ServletOutputStream outputStream = response.getOutputStream();
-             Workbook workbook = new Workbook(outputStream, "PKP", "1.0")) {
+    /**
+     * Cached variant for published reports that are downloaded repeatedly.
+     *
+     * The finished workbook is looked up in the configured {@link ReportCache} by PKP identity,
+     * comment timestamp/uuid and {@code dataVersion} (any string that changes whenever the
+     * detail data changes, e.g. a load timestamp or a hash of the inputs). On a hit the row
+     * sources are closed unread and the cached file is copied straight into the response.
+     * Without a cache this behaves exactly like {@link #generateExcel(ExportInput, HttpServletResponse)}.
+     */
+    public void generateExcelCached(String dataVersion, ExportInput input, HttpServletResponse response)
+            throws IOException {
+        ReportCache cache = reportCache;
+        if (cache == null) {
+            generateExcel(input, response);
+            return;
+        }
 
-            // 1) Worksheet "PKP"
-            Worksheet wsPKP = workbook.newWorksheet("PKP");
-            createPkpSheet(wsPKP, pkpPdf, pksPdfList);
+        ReportCache.Key key = ReportCache.Key.of(input.getPkpPdf(), dataVersion);
+        try (ExportInput in = input;
+             FileChannel file = cache.getOrRender(key, out -> {
+                 // Only a miss renders, so only a miss counts against the heap budget
+                 try (ExportAdmission.Permit permit = acquirePermit(in)) {
+                     writeWorkbook(out, in, ExportListener.NONE);
+                 }
+             })) {
+
+            setDownloadHeaders(response, in.getPkpPdf());
+            response.setContentLengthLong(file.size());
+            try (ServletOutputStream outputStream = response.getOutputStream()) {
+                ReportCache.transferTo(file, outputStream);
+                outputStream.flush();
+            }
+        } catch (ExportRejectedException e) {
+            reject(response, e);
+        }
+    }
 
-            // 2) Worksheet "PKP_details"
-            Worksheet wsPkpDetails = workbook.newWorksheet("PKP_details");
-            createPkpDetailsSheet(wsPkpDetails, pkpResultsList);
+    /**
+     * Incremental variant for reports that are re-exported after small edits, such as a new
+     * PKP comment or amended statuses, where the detail sheets stay the same.
+     *
+     * {@code sheetVersions} maps detail sheet names (see {@link #DELIMITED_DATASETS}) to a version
+     * of that sheet's rows: any string that changes whenever the rows change, e.g. a hash of the
+     * query result or a load timestamp. A versioned sheet is copied from the configured
+     * {@link SheetFragmentCache} when it is there and rendered and stored otherwise; its row
+     * source is then closed unread. The PKP sheet and unversioned sheets are always rendered.
+     * Without a cache this behaves exactly like {@link #generateExcel(ExportInput, HttpServletResponse)}.
+     */
+    public void generateExcelIncremental(Map<String, String> sheetVersions, ExportInput input,
+                                         HttpServletResponse response) throws IOException {
+        ExportAdmission.Permit permit = admit(input, response);
+        if (permit == null) {
+            return;
+        }
+
+        try (ExportAdmission.Permit p = permit) {
+            setDownloadHeaders(response, input.getPkpPdf());
+            sendWorkbook(response, out -> writeWorkbookIncremental(out, sheetVersions, input));
+        }
+    }
+
+    /**
+     * Writes the workbook of {@code renderer} as the response body, through a pooled buffer
+     * and via a temporary file if so configured.
+     */
+    private void sendWorkbook(HttpServletResponse response, ReportCache.Renderer renderer) throws IOException {
+        OutputBuffers buffers = outputBuffers;
+        if (!renderToTempFile) {
+            try (ServletOutputStream outputStream = response.getOutputStream()) {
+                if (buffers == null) {
+                    renderer.render(outputStream);
+                } else {
+                    try (OutputStream out = buffers.wrap(outputStream)) {
+                        renderer.render(out);
+                    }
+                }
+                outputStream.flush();
+            }
+            return;
+        }
+
+        Path tmp = Files.createTempFile("pkp-", ".xlsx");
+        try {
+            try (OutputStream file = Files.newOutputStream(tmp);
+                 OutputStream out = (buffers == null) ? new BufferedOutputStream(file) : buffers.wrapIgnoringFlush(file)) {
+                renderer.render(out);
+            }
+            try (FileChannel file = FileChannel.open(tmp, StandardOpenOption.READ)) {
+                response.setContentLengthLong(file.size());
+                try (ServletOutputStream outputStream = response.getOutputStream()) {
+                    ReportCache.transferTo(file, outputStream);
+                    outputStream.flush();
+                }
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Waits for the configured {@link ExportAdmission} to admit {@code input}. Returns
+     * {@code null} if the export was rejected, after closing the input and answering
+     * 503 with {@code Retry-After}.
+     */
+    private ExportAdmission.Permit admit(ExportInput input, HttpServletResponse response) throws IOException {
+        try {
+            return acquirePermit(input);
+        } catch (ExportRejectedException e) {
+            input.close();
+            reject(response, e);
+            return null;
+        } catch (InterruptedIOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the configured {@link ExportAdmission} to admit {@code input}, for render paths
+     * that cannot answer 503 themselves; {@link ExportAdmission#NONE} without admission control.
+     * The input is left open either way.
+     *
+     * @throws ExportRejectedException if the export was rejected
+     */
+    ExportAdmission.Permit acquirePermit(ExportInput input) throws InterruptedIOException {
+        ExportAdmission admission = exportAdmission;
+        if (admission == null) {
+            return ExportAdmission.NONE;
+        }
+        try {
+            return admission.acquire(input);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for export admission");
+        }
+    }
+
+    private static void reject(HttpServletResponse response, ExportRejectedException e) {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader("Retry-After", Long.toString(e.getRetryAfterSeconds()));
+    }
+
+    /**
+     * Writes the workbook of {@link #generateExcelIncremental} into {@code out}.
+     *
+     * The workbook is rendered into a temporary file with the cached sheets left empty, then
+     * copied into {@code out} part by part with the cached sheets swapped in. Parts are copied
+     * compressed, so a cached sheet costs a file copy. Cacheable sheets are written with inline
+     * strings only and every style is registered up front, so that a sheet's XML does not
+     * depend on the rest of the workbook it was rendered in.
+     * The input's row sources are closed before this method returns; {@code out} is left open.
+     */
+    public void writeWorkbookIncremental(OutputStream out, Map<String, String> sheetVersions, ExportInput input)
+            throws IOException {
+        SheetFragmentCache cache = sheetFragmentCache;
+        if (cache == null) {
+            writeWorkbook(out, input, ExportListener.NONE);
+            return;
+        }
+        metered(out, input, ExportListener.NONE,
+                (o, listener, recorder) -> writeWorkbookIncremental(o, sheetVersions, input, cache, listener, recorder));
+    }
+
+    private void writeWorkbookIncremental(OutputStream out, Map<String, String> sheetVersions, ExportInput input,
+                                          SheetFragmentCache cache, ExportListener listener,
+                                          ExportMetrics.Recorder recorder) throws IOException {
+        Map<String, SheetFragmentCache.Fragment> cached = new HashMap<>();   // part name => fragment
+        Map<String, SheetFragmentCache.Key> rendered = new HashMap<>();      // part name => key
+        Map<String, String> renderedSheets = new HashMap<>();                // part name => sheet name
+        Set<String> skipped = new HashSet<>();
+        Set<String> inline = new HashSet<>();
+        Path tmp = null;
+        try (ExportInput in = input) {
+            List<RowSource<?>> detailRows = detailRows(in);
+            int sheetNumber = 2;
+            for (int i = 0; i < DETAIL_SHEETS.size(); i++) {
+                SheetSchema<?> schema = DETAIL_SHEETS.get(i);
+                int shards = SheetSchema.shardsFor(detailRows.get(i).sizeHint());
+                String part = sheetPart(sheetNumber);
+                sheetNumber += shards;
+                String version = sheetVersions.get(schema.getSheetName());
+                // Sharded sheets span several parts; they are always rendered
+                if (version == null || shards > 1) {
+                    continue;
+                }
+                SheetFragmentCache.Key key = SheetFragmentCache.Key.of(in.getPkpPdf(), schema, version);
+                SheetFragmentCache.Fragment fragment = cache.open(key);
+                if (fragment != null) {
+                    cached.put(part, fragment);
+                    skipped.add(schema.getSheetName());
+                } else {
+                    rendered.put(part, key);
+                    renderedSheets.put(part, schema.getSheetName());
+                    inline.add(schema.getSheetName());
+                }
+            }
+
+            tmp = Files.createTempFile("pkp-", ".xlsx");
+            Set<String> overflowed;
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                overflowed = renderWorkbook(os, in, listener, recorder, skipped, inline);
+            }
+
+            try (FileChannel file = FileChannel.open(tmp, StandardOpenOption.READ)) {
+                List<ZipParts.Part> parts = ZipParts.read(file);
+                Set<String> names = new HashSet<>();
+                for (ZipParts.Part part : parts) {
+                    names.add(part.name);
+                }
+                if (!names.containsAll(cached.keySet()) || !names.containsAll(rendered.keySet())) {
+                    throw new IOException("Unexpected workbook layout: " + names);
+                }
+
+                ZipParts.Writer zip = new ZipParts.Writer(out);
+                for (ZipParts.Part part : parts) {
+                    SheetFragmentCache.Fragment fragment = cached.get(part.name);
+                    if (fragment != null) {
+                        zip.copy(fragment.part.renamed(part, fragment.part.dataOffset), fragment.channel);
+                        continue;
+                    }
+                    zip.copy(part, file);
+                    SheetFragmentCache.Key key = rendered.get(part.name);
+                    // A sheet that overflowed into extra worksheets is incomplete on its own
+                    if (key != null && !overflowed.contains(renderedSheets.get(part.name))) {
+                        cache.store(key, part, file);
+                    }
+                }
+                zip.finish();
+            }
+        } finally {
+            for (SheetFragmentCache.Fragment fragment : cached.values()) {
+                fragment.close();
+            }
+            if (tmp != null) {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
 
-            // 3) Worksheet "PKS_details"
-            Worksheet wsPksDetails = workbook.newWorksheet("PKS_details");
-            createPksDetailsSheet(wsPksDetails, pksDetailsList);
+    /**
+     * Row sources of {@link #DETAIL_SHEETS}, in the same order.
+     */
+    private static List<RowSource<?>> detailRows(ExportInput in) {
+        return Arrays.asList(in.getPkpResults(), in.getPksDetails(), in.getCarResults(),
+                in.getExcludedCars(), in.getCarThresholds());
+    }
 
-            // 4) Worksheet "Car_results"
-            Worksheet wsCarResults = workbook.newWorksheet("Car_results");
-            createCarResultsSheet(wsCarResults, carResultsList);
+    /**
+     * Name of the part holding the {@code n}-th worksheet (1-based) as fastexcel writes it.
+     */
+    private static String sheetPart(int n) {
+        return "xl/worksheets/sheet" + n + ".xml";
+    }
 
-            // 5) Worksheet "Excluded_cars"
-            Worksheet wsExcluded = workbook.newWorksheet("Excluded_cars");
-            createExcludedCarsSheet(wsExcluded, excludedCarsList);
+    /**
+     * Renders the complete workbook into {@code out}, reporting progress to {@code listener}.
+     * The input's row sources are closed before this method returns; {@code out} is left
+     * open for the caller.
+     */
+    public void writeWorkbook(OutputStream out, ExportInput input, ExportListener listener) throws IOException {
+        metered(out, input, listener, (o, l, recorder) -> writeWorkbook(o, input, l, recorder));
+    }
 
-            // 6) Worksheet "Cars_thresholds"
-            Worksheet wsCarThresholds = workbook.newWorksheet("Cars_thresholds");
-            createCarThresholdsSheet(wsCarThresholds, carThresholdsList);
+    /**
+     * Runs {@code export}, recording it in the configured {@link ExportMetrics} if any: the
+     * bytes written to {@code out}, the total time and, through the recorder passed as its
+     * listener, the per-sheet timings.
+     */
+    private void metered(OutputStream out, ExportInput input, ExportListener listener, MeteredExport export)
+            throws IOException {
+        ExportMetrics metrics = exportMetrics;
+        if (metrics == null) {
+            export.write(out, listener, null);
+            return;
+        }
+
+        CountingOutputStream counting = new CountingOutputStream(out);
+        ExportMetrics.Recorder recorder = metrics.start(input.getPkpPdf().getPkp_name(), listener);
+        try {
+            export.write(counting, recorder, recorder);
+        } catch (IOException | RuntimeException e) {
+            recorder.exportFinished(counting.getCount(), e);
+            throw e;
+        }
+        recorder.exportFinished(counting.getCount(), null);
+    }
+
+    private void writeWorkbook(OutputStream out, ExportInput input, ExportListener listener,
+                               ExportMetrics.Recorder recorder) throws IOException {
+        try (ExportInput in = input) {
+            renderWorkbook(out, in, listener, recorder, Collections.<String>emptySet(), null);
+        }
+    }
+
+    /**
+     * @param skipped sheets left empty, a cached copy is spliced in later
+     * @param inline  sheets written without shared strings so they can be cached, or
+     *                {@code null} for a plain workbook; see {@link #writeWorkbookIncremental}
+     * @return the sheets that needed more worksheets than their size hint promised
+     */
+    private Set<String> renderWorkbook(OutputStream out, ExportInput in, ExportListener listener,
+                                       ExportMetrics.Recorder recorder, Set<String> skipped,
+                                       Set<String> inline) throws IOException {
+        PkpPdf pkpPdf = in.getPkpPdf();
+        List<PksPdf> pksPdfList = in.getPksPdfList();
+        Set<String> overflowed = ConcurrentHashMap.newKeySet();
+
+        try (Workbook workbook = new Workbook(out, "PKP", "1.0")) {
+            Integer level = compressionLevel;
+            if (level != null) {
+                workbook.setCompressionLevel(level);
+            }
+            // Worksheets are created up front so the sheet order is fixed even when
+            // the sheets are filled concurrently. Datasets beyond the row limit of a worksheet
+            // get their further shards (PKS_details_2, ...) right after the first one.
+            Worksheet wsPKP = workbook.newWorksheet("PKP");
+            Worksheet[] wsPkpDetails = newSheets(workbook, ExportSchemas.PKP_DETAILS, in.getPkpResults());
+            Worksheet[] wsPksDetails = newSheets(workbook, ExportSchemas.PKS_DETAILS, in.getPksDetails());
+            Worksheet[] wsCarResults = newSheets(workbook, ExportSchemas.CAR_RESULTS, in.getCarResults());
+            Worksheet[] wsExcluded = newSheets(workbook, ExportSchemas.EXCLUDED_CARS, in.getExcludedCars());
+            Worksheet[] wsCarThresholds = newSheets(workbook, ExportSchemas.CAR_THRESHOLDS, in.getCarThresholds());
+            if (inline != null) {
+                registerStyles(wsPKP);
+            }
+
+            ExecutorService executor = sheetExecutor;
+            // fastexcel locks the zip stream from a sheet's first flush until it is finished,
+            // so concurrent sheets are buffered whole and written out on finish instead.
+            FlushPolicy policy = (executor == null) ? flushPolicy : FlushPolicy.NEVER;
+
+            Map<String, SheetTask> tasks = new LinkedHashMap<>();
+            // 1) Worksheet "PKP"
+            tasks.put("PKP", () -> {
+                listener.sheetStarted("PKP");
+                createPkpSheet(wsPKP, pkpPdf, pksPdfList);
+                listener.sheetFinished("PKP", (pksPdfList == null) ? 0 : pksPdfList.size());
+            });
+            // 2) - 6) Tabular sheets, see ExportSchemas
+            SheetTasks sheetTasks = new SheetTasks(tasks, workbook, policy, listener, inline, overflowed);
+            sheetTasks.add(ExportSchemas.PKP_DETAILS, wsPkpDetails, in.getPkpResults());
+            sheetTasks.add(ExportSchemas.PKS_DETAILS, wsPksDetails, in.getPksDetails());
+            sheetTasks.add(ExportSchemas.CAR_RESULTS, wsCarResults, in.getCarResults());
+            sheetTasks.add(ExportSchemas.EXCLUDED_CARS, wsExcluded, in.getExcludedCars());
+            sheetTasks.add(ExportSchemas.CAR_THRESHOLDS, wsCarThresholds, in.getCarThresholds());
+            tasks.keySet().removeAll(skipped);
+
+            if (in.isAggregated()) {
+                // The details are counted while the car rows stream past, so those go first
+                SheetTask carResultsTask = tasks.remove(ExportSchemas.CAR_RESULTS.getSheetName());
+                if (carResultsTask != null) {
+                    carResultsTask.write();
+                } else if (tasks.containsKey(ExportSchemas.PKP_DETAILS.getSheetName())
+                        || tasks.containsKey(ExportSchemas.PKS_DETAILS.getSheetName())) {
+                    in.completeAggregation();
+                }
+            }
+            runSheetTasks(new ArrayList<>(tasks.values()), executor);
 
             // Finish workbook
+            long finishStart = System.nanoTime();
             workbook.finish();
+            if (recorder != null) {
+                recorder.workbookFinished(System.nanoTime() - finishStart);
+            }
+        }
+        return overflowed;
+    }
+
+    /**
+     * The worksheets of one tabular sheet: as many as its size hint calls for, at least one.
+     */
+    private static Worksheet[] newSheets(Workbook workbook, SheetSchema<?> schema, RowSource<?> rows) {
+        Worksheet[] sheets = new Worksheet[SheetSchema.shardsFor(rows.sizeHint())];
+        for (int i = 0; i < sheets.length; i++) {
+            sheets[i] = workbook.newWorksheet(SheetSchema.shardName(schema.getSheetName(), i));
+        }
+        return sheets;
+    }
+
+    /**
+     * Worksheets {@link #writeWorkbook} creates for {@code input}: the PKP sheet plus the
+     * shards of each tabular sheet, as far as the size hints tell.
+     */
+    static int worksheetCount(ExportInput input) {
+        return 1
+                + SheetSchema.shardsFor(input.getPkpResults().sizeHint())
+                + SheetSchema.shardsFor(input.getPksDetails().sizeHint())
+                + SheetSchema.shardsFor(input.getCarResults().sizeHint())
+                + SheetSchema.shardsFor(input.getExcludedCars().sizeHint())
+                + SheetSchema.shardsFor(input.getCarThresholds().sizeHint());
+    }
+
+    /**
+     * Builds the tasks that fill the tabular sheets of one workbook.
+     */
+    private static final class SheetTasks {
+        private final Map<String, SheetTask> tasks;
+        private final Workbook workbook;
+        private final FlushPolicy policy;
+        private final ExportListener listener;
+        private final Set<String> inline;
+        private final Set<String> overflowed;
+
+        SheetTasks(Map<String, SheetTask> tasks, Workbook workbook, FlushPolicy policy,
+                   ExportListener listener, Set<String> inline, Set<String> overflowed) {
+            this.tasks = tasks;
+            this.workbook = workbook;
+            this.policy = policy;
+            this.listener = listener;
+            this.inline = inline;
+            this.overflowed = overflowed;
+        }
+
+        /**
+         * Adds the task(s) for one tabular sheet whose worksheets {@code sheets} were created
+         * from the size hint of {@code rows} (see {@link #newSheets}).
+         *
+         * Shards are written concurrently and stay next to their base sheet only for sources
+         * that {@link RowSource#split split} into as many parts as there are worksheets, i.e.
+         * List-backed ones. Any other source fills its worksheets one after the other on a
+         * single task, and rows beyond its size hint go to shards created after the last
+         * sheet of the workbook: fastexcel fixes a worksheet's part name when it is created,
+         * so no slot can be inserted next to the base sheet any more. Those sheets are
+         * recorded in {@code overflowed}.
+         */
+        <T> void add(SheetSchema<T> schema, Worksheet[] sheets, RowSource<? extends T> rows) {
+            String name = schema.getSheetName();
+            boolean sharedStrings = (inline == null) || !inline.contains(name);
+
+            List<? extends RowSource<? extends T>> parts = (sheets.length > 1)
+                    ? rows.split(SheetSchema.MAX_DATA_ROWS)
+                    : Collections.singletonList(rows);
+            if (parts.size() == sheets.length && sheets.length > 1) {
+                // Independent parts (a materialized list): one task per shard, so that a sheet
+                // executor renders the shards concurrently
+                for (int i = 0; i < sheets.length; i++) {
+                    Worksheet sheet = sheets[i];
+                    RowSource<? extends T> part = parts.get(i);
+                    String shardName = SheetSchema.shardName(name, i);
+                    tasks.put(shardName, () -> schema.write(shard -> sheet, part, policy, listener,
+                            sharedStrings, shardName));
+                }
+                return;
+            }
+
+            tasks.put(name, () -> schema.write(shard -> {
+                if (shard < sheets.length) {
+                    return sheets[shard];
+                }
+                // More rows than the size hint promised; sheet order is fixed by now, so the
+                // extra shards go after the last sheet
+                overflowed.add(name);
+                synchronized (workbook) {
+                    return workbook.newWorksheet(SheetSchema.shardName(name, shard));
+                }
+            }, rows, policy, listener, sharedStrings, name));
+        }
+    }
+
+    /**
+     * Registers every {@link CellStyle} in declaration order before anything else is styled,
+     * so each style gets the same index in styles.xml no matter which sheets are rendered;
+     * cached sheets refer to styles by index. The styled cells are blank and sit in one of the
+     * empty rows of the PKP sheet.
+     */
+    private static void registerStyles(Worksheet pkpSheet) {
+        CellStyle[] styles = CellStyle.values();
+        for (int c = 0; c < styles.length; c++) {
+            styles[c].apply(pkpSheet, STYLE_REGISTRATION_ROW, c);
+        }
+    }
+
+    /**
+     * Batch export: one ZIP with a workbook per PKP, streamed to the response as
+     * {@code zipName}.
+     *
+     * Each loader fetches the input of one PKP; loading and rendering run on a bounded pool
+     * (see {@link #setBatchParallelism}) while the archive is written in loader order, each
+     * workbook as soon as it and all before it are done. The sheet schemas and styles are
+     * shared, so per-PKP setup is just the workbook itself.
+     */
+    public void generateExcelBatch(String zipName, List<? extends ExportInputLoader> loaders,
+                                   HttpServletResponse response) throws IOException {
+        setDownloadHeaders(response, zipName, "application/zip");
+
+        try (ServletOutputStream outputStream = response.getOutputStream()) {
+            writeWorkbookBatch(outputStream, loaders);
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * Writes the batch ZIP of {@link #generateExcelBatch} into {@code out}, which is left open.
+     *
+     * Workbooks are rendered to temporary files and stored in the archive uncompressed, since
+     * an {@code .xlsx} is already a deflated ZIP. At most parallelism + 1 rendered or
+     * rendering workbooks exist at any time. Duplicate file names get a {@code " (n)"} suffix.
+     */
+    public void writeWorkbookBatch(OutputStream out, List<? extends ExportInputLoader> loaders) throws IOException {
+        ExecutorService executor;
+        int window;
+        synchronized (this) {
+            if (batchExecutor == null) {
+                batchExecutor = Executors.newFixedThreadPool(batchParallelism, new ThreadFactory() {
+                    private final AtomicInteger counter = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "excel-batch-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            executor = batchExecutor;
+            window = batchParallelism + 1;
+        }
+
+        ZipOutputStream zip = new ZipOutputStream(out);
+        Deque<Future<RenderedWorkbook>> pending = new ArrayDeque<>();
+        Set<String> names = new HashSet<>();
+        int next = 0;
+        try {
+            while (next < loaders.size() || !pending.isEmpty()) {
+                while (next < loaders.size() && pending.size() < window) {
+                    ExportInputLoader loader = loaders.get(next++);
+                    pending.add(executor.submit(() -> renderToTempFile(loader)));
+                }
+                RenderedWorkbook workbook = await(pending.poll());
+                try {
+                    workbook.appendTo(zip, uniqueName(workbook.fileName, names));
+                } finally {
+                    Files.deleteIfExists(workbook.file);
+                }
+            }
+            zip.finish();
+        } finally {
+            for (Future<RenderedWorkbook> future : pending) {
+                discard(future);
+            }
+        }
+    }
+
+    /**
+     * Loads the input of one PKP for a batch export.
+     */
+    @FunctionalInterface
+    public interface ExportInputLoader {
+        ExportInput load() throws IOException;
+    }
+
+    private RenderedWorkbook renderToTempFile(ExportInputLoader loader) throws IOException {
+        ExportInput input = loader.load();
+        ExportAdmission.Permit permit;
+        try {
+            permit = acquirePermit(input);
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+        String fileName = fileNameOf(input.getPkpPdf());
+        try (ExportAdmission.Permit p = permit) {
+            Path file = Files.createTempFile("pkp-batch-", ".xlsx");
+            try {
+                CRC32 crc = new CRC32();
+                try (OutputStream os = new CheckedOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024), crc)) {
+                    writeWorkbook(os, input, ExportListener.NONE);
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Batch export cancelled");
+                }
+                return new RenderedWorkbook(fileName, file, Files.size(file), crc.getValue());
+            } catch (IOException | RuntimeException | Error e) {
+                Files.deleteIfExists(file);
+                throw e;
+            }
+        }
+    }
+
+    private static RenderedWorkbook await(Future<RenderedWorkbook> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a batch workbook");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Cancels a workbook that will not be written and removes its file if it was already rendered.
+     */
+    private static void discard(Future<RenderedWorkbook> future) {
+        future.cancel(true);
+        if (future.isDone() && !future.isCancelled()) {
+            try {
+                Files.deleteIfExists(future.get().file);
+            } catch (Exception ignored) {
+                // failed renders clean up after themselves
+            }
+        }
+    }
+
+    private static String uniqueName(String fileName, Set<String> names) {
+        String name = fileName;
+        int dot = fileName.lastIndexOf('.');
+        for (int n = 2; !names.add(name); n++) {
+            name = fileName.substring(0, dot) + " (" + n + ")" + fileName.substring(dot);
+        }
+        return name;
+    }
+
+    private static final class RenderedWorkbook {
+        final String fileName;
+        final Path file;
+        final long size;
+        final long crc;
+
+        RenderedWorkbook(String fileName, Path file, long size, long crc) {
+            this.fileName = fileName;
+            this.file = file;
+            this.size = size;
+            this.crc = crc;
+        }
+
+        void appendTo(ZipOutputStream zip, String entryName) throws IOException {
+            ZipEntry entry = new ZipEntry(entryName);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(size);
+            entry.setCompressedSize(size);
+            entry.setCrc(crc);
+            zip.putNextEntry(entry);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ReportCache.transferTo(channel, zip);
+            }
+            zip.closeEntry();
+        }
+    }
+
+    /**
+     * Delimited-text export for scripts and data pipelines: the six datasets as one CSV/TSV
+     * file each ({@code PKP.csv}, {@code PKP_details.csv}, ...) inside a streamed ZIP.
+     * No styling or spreadsheet XML is produced and memory use does not grow with the row count.
+     */
+    public void generateDelimited(ExportInput input, DelimitedFormat format, HttpServletResponse response)
+            throws IOException {
+        setDownloadHeaders(response, baseNameOf(input.getPkpPdf()) + ".zip", "application/zip");
+
+        try (ServletOutputStream outputStream = response.getOutputStream()) {
+            writeDelimited(outputStream, input, format, ExportListener.NONE);
             outputStream.flush();
         }
     }
 
+    /**
+     * Exports a single dataset, named like its worksheet (e.g. {@code "PKS_details"}), as one
+     * CSV/TSV file, gzip-compressed when {@code gzip} is set.
+     */
+    public void generateDelimited(ExportInput input, String dataset, DelimitedFormat format, boolean gzip,
+                                  HttpServletResponse response) throws IOException {
+        String fileName = baseNameOf(input.getPkpPdf()) + "_" + dataset + format.getExtension();
+        if (gzip) {
+            setDownloadHeaders(response, fileName + ".gz", "application/gzip");
+        } else {
+            setDownloadHeaders(response, fileName, format.getContentType() + "; charset=UTF-8");
+        }
+
+        try (ServletOutputStream outputStream = response.getOutputStream()) {
+            writeDelimited(outputStream, input, dataset, format, gzip, ExportListener.NONE);
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * Writes every dataset into a ZIP on {@code out}. Entries are deflated at the fastest
+     * level: the text compresses well anyway and throughput matters more here.
+     * The input's row sources are closed before this method returns; {@code out} is left open.
+     */
+    public void writeDelimited(OutputStream out, ExportInput input, DelimitedFormat format, ExportListener listener)
+            throws IOException {
+        try (ExportInput in = input) {
+            ZipOutputStream zip = new ZipOutputStream(out);
+            zip.setLevel(Deflater.BEST_SPEED);
+            DelimitedWriter writer = new DelimitedWriter(zip, format);
+            List<String> datasets = DELIMITED_DATASETS;
+            if (in.isAggregated()) {
+                // The details are counted while the car rows stream past, so those go first
+                datasets = new ArrayList<>(DELIMITED_DATASETS);
+                datasets.remove(ExportSchemas.CAR_RESULTS.getSheetName());
+                datasets.add(0, ExportSchemas.CAR_RESULTS.getSheetName());
+            }
+            for (String dataset : datasets) {
+                zip.putNextEntry(new ZipEntry(dataset + format.getExtension()));
+                writeDataset(writer, in, dataset, listener);
+                zip.closeEntry();
+            }
+            zip.finish();
+        }
+    }
+
+    /**
+     * Writes a single dataset on {@code out}, optionally gzip-compressed.
+     * The input's row sources are closed before this method returns; {@code out} is left open.
+     */
+    public void writeDelimited(OutputStream out, ExportInput input, String dataset, DelimitedFormat format,
+                               boolean gzip, ExportListener listener) throws IOException {
+        try (ExportInput in = input) {
+            GZIPOutputStream gzipStream = gzip ? new GZIPOutputStream(out, DelimitedWriter.DEFAULT_BUFFER_SIZE) : null;
+            DelimitedWriter writer = new DelimitedWriter(gzip ? gzipStream : out, format);
+            if (dataset.equals(ExportSchemas.PKP_DETAILS.getSheetName())
+                    || dataset.equals(ExportSchemas.PKS_DETAILS.getSheetName())) {
+                in.completeAggregation();
+            }
+            writeDataset(writer, in, dataset, listener);
+            if (gzipStream != null) {
+                gzipStream.finish();
+            }
+        }
+    }
+
+    private static long writeDataset(DelimitedWriter writer, ExportInput in, String dataset, ExportListener listener)
+            throws IOException {
+        if (dataset.equals(ExportSchemas.PKP_SUMMARY.getSheetName())) {
+            return ExportSchemas.PKP_SUMMARY.write(writer,
+                    ExportSchemas.pkpSummaryRows(in.getPkpPdf(), in.getPksPdfList()), listener);
+        } else if (dataset.equals(ExportSchemas.PKP_DETAILS.getSheetName())) {
+            return ExportSchemas.PKP_DETAILS.write(writer, in.getPkpResults(), listener);
+        } else if (dataset.equals(ExportSchemas.PKS_DETAILS.getSheetName())) {
+            return ExportSchemas.PKS_DETAILS.write(writer, in.getPksDetails(), listener);
+        } else if (dataset.equals(ExportSchemas.CAR_RESULTS.getSheetName())) {
+            return ExportSchemas.CAR_RESULTS.write(writer, in.getCarResults(), listener);
+        } else if (dataset.equals(ExportSchemas.EXCLUDED_CARS.getSheetName())) {
+            return ExportSchemas.EXCLUDED_CARS.write(writer, in.getExcludedCars(), listener);
+        } else if (dataset.equals(ExportSchemas.CAR_THRESHOLDS.getSheetName())) {
+            return ExportSchemas.CAR_THRESHOLDS.write(writer, in.getCarThresholds(), listener);
+        }
+        throw new IllegalArgumentException("Unknown dataset: " + dataset + ", expected one of " + DELIMITED_DATASETS);
+    }
+
+    /**
+     * Download file name: pkp_name + "_" + pkp_date + ".xlsx".
+     */
+    public static String fileNameOf(PkpPdf pkpPdf) {
+        return baseNameOf(pkpPdf) + ".xlsx";
+    }
+
+    /**
+     * pkp_name + "_" + pkp_date, the stem of every download file name.
+     */
+    static String baseNameOf(PkpPdf pkpPdf) {
+        String dateString = (pkpPdf.getPkp_date() != null)
+                ? pkpPdf.getPkp_date().format(DateTimeFormatter.ISO_DATE)
+                : "unknown_date";
+        return pkpPdf.getPkp_name() + "_" + dateString;
+    }
+
+    private static void setDownloadHeaders(HttpServletResponse response, PkpPdf pkpPdf) {
+        // Construct file name based on pkp_name + pkp_date
+        setDownloadHeaders(response, fileNameOf(pkpPdf));
+    }
+
+    static void setDownloadHeaders(HttpServletResponse response, String fileName) {
+        setDownloadHeaders(response, fileName, "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+    }
+
+    static void setDownloadHeaders(HttpServletResponse response, String fileName, String contentType) {
+        response.setContentType(contentType);
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+    }
+
     /**
      * 1) Worksheet "PKP"
      *
@@ -93,7 +1073,7 @@ public class ExcelService {
 
         // 1) pkp_name in row 0, col 0 (bold, fontSize=14)
         sheet.value(row, 0, safeString(pkpPdf.getPkp_name()));
-        sheet.style(row, 0).bold(true).fontSize(14);
+        CellStyle.TITLE.apply(sheet, row, 0);
         // Set approximate width (adjust as needed)
         sheet.width(0, 100);
 
@@ -110,19 +1090,19 @@ public class ExcelService {
 
         // 4) Header row: [ "", Accuracy, Completeness, Consistency, Timeliness ]
         sheet.value(row, 0, "");
-        sheet.style(row, 0).bold(true);
+        CellStyle.HEADER.apply(sheet, row, 0);
 
         sheet.value(row, 1, "Accuracy");
-        sheet.style(row, 1).bold(true).wrapText(true);
+        CellStyle.HEADER_WRAPPED.apply(sheet, row, 1);
 
         sheet.value(row, 2, "Completeness");
-        sheet.style(row, 2).bold(true).wrapText(true);
+        CellStyle.HEADER_WRAPPED.apply(sheet, row, 2);
 
         sheet.value(row, 3, "Consistency");
-        sheet.style(row, 3).bold(true).wrapText(true);
+        CellStyle.HEADER_WRAPPED.apply(sheet, row, 3);
 
         sheet.value(row, 4, "Timeliness");
-        sheet.style(row, 4).bold(true).wrapText(true);
+        CellStyle.HEADER_WRAPPED.apply(sheet, row, 4);
 
         // Set approximate column widths
         sheet.width(1, 30);
@@ -134,7 +1114,7 @@ public class ExcelService {
 
         // 5) Row: "System Based" with corresponding values
         sheet.value(row, 0, "System Based");
-        sheet.style(row, 0).bold(true);
+        CellStyle.HEADER.apply(sheet, row, 0);
 
         applyColorCodedValue(sheet, row, 1, pkpPdf.getAccuracy());
         applyColorCodedValue(sheet, row, 2, pkpPdf.getCompleteness());
@@ -145,7 +1125,7 @@ public class ExcelService {
 
         // 6) Row: "Adjusted" with corresponding values
         sheet.value(row, 0, "Adjusted");
-        sheet.style(row, 0).bold(true);
+        CellStyle.HEADER.apply(sheet, row, 0);
 
         applyColorCodedValue(sheet, row, 1, pkpPdf.getAccuracy_amended());
         applyColorCodedValue(sheet, row, 2, pkpPdf.getCompleteness_amended());
@@ -159,12 +1139,12 @@ public class ExcelService {
 
         // 8) Row: "samochod owner comment:" (bold)
         sheet.value(row, 0, "samochod owner comment:");
-        sheet.style(row, 0).bold(true);
+        CellStyle.HEADER.apply(sheet, row, 0);
         row++;
 
         // 9) Row: pkp_comment
         sheet.value(row, 0, safeString(pkpPdf.getPkp_comment()));
-        sheet.style(row, 0).wrapText(true);
+        CellStyle.WRAPPED.apply(sheet, row, 0);
         row++;
 
         // 10) Two empty rows
@@ -172,26 +1152,26 @@ public class ExcelService {
 
         // 11) Row: "Polska Klasa Samochodow" and headers for metrics
         sheet.value(row, 0, "Polska Klasa Samochodow");
-        sheet.style(row, 0).bold(true);
+        CellStyle.HEADER.apply(sheet, row, 0);
 
         sheet.value(row, 1, "Accuracy");
-        sheet.style(row, 1).bold(true).wrapText(true);
+        CellStyle.HEADER_WRAPPED.apply(sheet, row, 1);
 
         sheet.value(row, 2, "Completeness");
-        sheet.style(row, 2).bold(true).wrapText(true);
+        CellStyle.HEADER_WRAPPED.apply(sheet, row, 2);
 
         sheet.value(row, 3, "Consistency");
-        sheet.style(row, 3).bold(true).wrapText(true);
+        CellStyle.HEADER_WRAPPED.apply(sheet, row, 3);
 
         sheet.value(row, 4, "Timeliness");
-        sheet.style(row, 4).bold(true).wrapText(true);
+        CellStyle.HEADER_WRAPPED.apply(sheet, row, 4);
         row++;
 
         // 12) Rows for pksPdfList
         if (pksPdfList != null) {
             for (PksPdf pks : pksPdfList) {
                 sheet.value(row, 0, safeString(pks.getPks_name()));
-                sheet.style(row, 0).bold(true);
+                CellStyle.HEADER.apply(sheet, row, 0);
 
                 applyColorCodedValue(sheet, row, 1, pks.getAccuracy());
                 applyColorCodedValue(sheet, row, 2, pks.getCompleteness());
@@ -215,6 +1195,7 @@ public class ExcelService {
 
     /**
      * Helper method to apply color coding for red/amber/green (all others => black).
+     * Styles come from the shared {@link CellStyle} registry.
      */
     private void applyColorCodedValue(Worksheet sheet, int row, int col, String value) {
         if (value == null) {
@@ -222,296 +1203,54 @@ public class ExcelService {
             return;
         }
         sheet.value(row, col, value);
-        sheet.style(row, col).wrapText(true);
-
-        String lower = value.trim().toLowerCase();
-        switch (lower) {
-            case "red":
-                sheet.style(row, col).fontColor(Color.RED);
-                break;
-            case "amber":
-                sheet.style(row, col).fontColor(new Color(255, 192, 0));
-                break;
-            case "green":
-                sheet.style(row, col).fontColor(new Color(0, 176, 80));
-                break;
-            default:
-                sheet.style(row, col).fontColor(Color.BLACK);
-        }
+        CellStyle.rag(value).apply(sheet, row, col);
     }
 
     /**
-     * 2) Worksheet "PKP_details"
-     *
-     * Fields in PkpResults:
-     *   int pkp_id;
-     *   LocalDate pkp_date;
-     *   String pkp_name;
-     *   String dimension;
-     *   int red;
-     *   int amber;
-     *   int green;
-     *   int na;
-     *   String pkp_status;
-     *   String pkp_status_amended;
-     */
-    private void createPkpDetailsSheet(Worksheet sheet, List<PkpResults> pkpResultsList) {
-        int row = 0;
-
-        // Header row
-        sheet.value(row, 0, "PKP ID");
-        sheet.style(row, 0).bold(true);
-        sheet.value(row, 1, "PKP DATE");
-        sheet.style(row, 1).bold(true);
-        sheet.value(row, 2, "PKP NAME");
-        sheet.style(row, 2).bold(true);
-        sheet.value(row, 3, "DIMENSION");
-        sheet.style(row, 3).bold(true);
-        sheet.value(row, 4, "RED");
-        sheet.style(row, 4).bold(true);
-        sheet.value(row, 5, "AMBER");
-        sheet.style(row, 5).bold(true);
-        sheet.value(row, 6, "GREEN");
-        sheet.style(row, 6).bold(true);
-        sheet.value(row, 7, "NA");
-        sheet.style(row, 7).bold(true);
-        sheet.value(row, 8, "PKP STATUS");
-        sheet.style(row, 8).bold(true);
-        sheet.value(row, 9, "PKP STATUS AMENDED");
-        sheet.style(row, 9).bold(true);
-        // Set larger column width for PKP NAME
-        sheet.width(2, 80);
-        row++;
-
-        // Data rows
-        if (pkpResultsList != null) {
-            for (PkpResults pr : pkpResultsList) {
-                sheet.value(row, 0, pr.getPkp_id());
-
-                String dateString = formatDate(pr.getPkp_date());
-                sheet.value(row, 1, dateString);
-                sheet.style(row, 1).wrapText(true);
-
-                sheet.value(row, 2, safeString(pr.getPkp_name()));
-                sheet.style(row, 2).wrapText(true);
-
-                sheet.value(row, 3, safeString(pr.getDimension()));
-                sheet.style(row, 3).wrapText(true);
-
-                sheet.value(row, 4, pr.getRed());
-                sheet.value(row, 5, pr.getAmber());
-                sheet.value(row, 6, pr.getGreen());
-                sheet.value(row, 7, pr.getNa());
-
-                sheet.value(row, 8, safeString(pr.getPkp_status()));
-                sheet.style(row, 8).wrapText(true);
-
-                sheet.value(row, 9, safeString(pr.getPkp_status_amended()));
-                sheet.style(row, 9).wrapText(true);
-                row++;
+     * Fills the worksheets either one after another on the calling thread or, when a sheet
+     * executor is configured, concurrently. Waits for every task and rethrows the first failure.
+     */
+    private void runSheetTasks(List<SheetTask> tasks, ExecutorService executor) throws IOException {
+        if (executor == null) {
+            for (SheetTask task : tasks) {
+                task.write();
             }
+            return;
         }
-    }
-
-    /**
-     * 3) Worksheet "PKS_details"
-     *
-     * Fields in KrfResult:
-     *   int pkp_id;
-     *   int pks_id;
-     *   LocalDate pkp_date;
-     *   String pks_name;
-     *   String dimension;
-     *   int red;
-     *   int amber;
-     *   int green;
-     *   int na;
-     *   String rag_status;
-     */
-    private void createPksDetailsSheet(Worksheet sheet, List<KrfResult> pksDetailsList) {
-        int row = 0;
-
-        // Header row
-        sheet.value(row, 0, "PKP ID");
-        sheet.style(row, 0).bold(true);
-        sheet.value(row, 1, "PKS ID");
-        sheet.style(row, 1).bold(true);
-        sheet.value(row, 2, "PKP DATE");
-        sheet.style(row, 2).bold(true);
-        sheet.value(row, 3, "PKS NAME");
-        sheet.style(row, 3).bold(true);
-        sheet.value(row, 4, "DIMENSION");
-        sheet.style(row, 4).bold(true);
-        sheet.value(row, 5, "RED");
-        sheet.style(row, 5).bold(true);
-        sheet.value(row, 6, "AMBER");
-        sheet.style(row, 6).bold(true);
-        sheet.value(row, 7, "GREEN");
-        sheet.style(row, 7).bold(true);
-        sheet.value(row, 8, "NA");
-        sheet.style(row, 8).bold(true);
-        sheet.value(row, 9, "RAG STATUS");
-        sheet.style(row, 9).bold(true);
-        row++;
 
-        // Data rows
-        if (pksDetailsList != null) {
-            for (KrfResult kr : pksDetailsList) {
-                sheet.value(row, 0, kr.getPkp_id());
-                sheet.value(row, 1, kr.getPks_id());
-
-                String dateString = formatDate(kr.getPkp_date());
-                sheet.value(row, 2, dateString);
-                sheet.style(row, 2).wrapText(true);
-
-                sheet.value(row, 3, safeString(kr.getPks_name()));
-                sheet.style(row, 3).wrapText(true);
-
-                sheet.value(row, 4, safeString(kr.getDimension()));
-                sheet.style(row, 4).wrapText(true);
-
-                sheet.value(row, 5, kr.getRed());
-                sheet.value(row, 6, kr.getAmber());
-                sheet.value(row, 7, kr.getGreen());
-                sheet.value(row, 8, kr.getNa());
-
-                sheet.value(row, 9, safeString(kr.getRag_status()));
-                sheet.style(row, 9).wrapText(true);
-                row++;
-            }
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[tasks.size()];
+        for (int i = 0; i < futures.length; i++) {
+            SheetTask task = tasks.get(i);
+            futures[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    task.write();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor);
         }
-    }
-
-    /**
-     * 4) Worksheet "Car_results"
-     *
-     * Fields in CarResults:
-     *   int car_id;
-     *   String car_name;
-     *   String dimension;
-     *   String red;
-     *   String amber;
-     *   Double car_score;
-     *   String car_status;
-     */
-    private void createCarResultsSheet(Worksheet sheet, List<CarResults> carResultsList) {
-        int row = 0;
-
-        // Header row
-        sheet.value(row, 0, "CAR ID");
-        sheet.style(row, 0).bold(true);
-        sheet.value(row, 1, "CAR NAME");
-        sheet.style(row, 1).bold(true);
-        sheet.value(row, 2, "DIMENSION");
-        sheet.style(row, 2).bold(true);
-        sheet.value(row, 3, "RED");
-        sheet.style(row, 3).bold(true);
-        sheet.value(row, 4, "AMBER");
-        sheet.style(row, 4).bold(true);
-        sheet.value(row, 5, "CAR SCORE");
-        sheet.style(row, 5).bold(true);
-        sheet.value(row, 6, "CAR STATUS");
-        sheet.style(row, 6).bold(true);
-        row++;
-
-        // Data rows
-        if (carResultsList != null) {
-            for (CarResults cr : carResultsList) {
-                sheet.value(row, 0, cr.getCar_id());
-
-                sheet.value(row, 1, safeString(cr.getCar_name()));
-                sheet.style(row, 1).wrapText(true);
-
-                sheet.value(row, 2, safeString(cr.getDimension()));
-                sheet.style(row, 2).wrapText(true);
-
-                sheet.value(row, 3, safeString(cr.getRed()));
-                sheet.style(row, 3).wrapText(true);
-
-                sheet.value(row, 4, safeString(cr.getAmber()));
-                sheet.style(row, 4).wrapText(true);
-
-                sheet.value(row, 5, (cr.getCar_score() == null ? "" : cr.getCar_score()));
-
-                sheet.value(row, 6, safeString(cr.getCar_status()));
-                sheet.style(row, 6).wrapText(true);
-                row++;
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
             }
-        }
-    }
-
-    /**
-     * 5) Worksheet "Excluded_cars"
-     *
-     * Fields in ExcludedCars:
-     *   int car_id;
-     *   String car_name;
-     *   String exclusion_reason;
-     */
-    private void createExcludedCarsSheet(Worksheet sheet, List<ExcludedCars> excludedCarsList) {
-        int row = 0;
-
-        sheet.value(row, 0, "CAR ID");
-        sheet.style(row, 0).bold(true);
-        sheet.value(row, 1, "CAR NAME");
-        sheet.style(row, 1).bold(true);
-        sheet.value(row, 2, "EXCLUSION REASON");
-        sheet.style(row, 2).bold(true);
-        row++;
-
-        // Data rows
-        if (excludedCarsList != null) {
-            for (ExcludedCars ec : excludedCarsList) {
-                sheet.value(row, 0, ec.getCar_id());
-
-                sheet.value(row, 1, safeString(ec.getCar_name()));
-                sheet.style(row, 1).wrapText(true);
-
-                sheet.value(row, 2, safeString(ec.getExclusion_reason()));
-                sheet.style(row, 2).wrapText(true);
-                row++;
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
+            throw e;
         }
     }
 
-    /**
-     * 6) Worksheet "Cars_thresholds"
-     *
-     * Fields in CarThresholds:
-     *   String car_name;
-     *   int accuracy;
-     *   int completeness;
-     *   int consistency;
-     *   int timeliness;
-     */
-    private void createCarThresholdsSheet(Worksheet sheet, List<CarThresholds> carThresholdsList) {
-        int row = 0;
-
-        sheet.value(row, 0, "CAR NAME");
-        sheet.style(row, 0).bold(true);
-        sheet.value(row, 1, "ACCURACY");
-        sheet.style(row, 1).bold(true);
-        sheet.value(row, 2, "COMPLETENESS");
-        sheet.style(row, 2).bold(true);
-        sheet.value(row, 3, "CONSISTENCY");
-        sheet.style(row, 3).bold(true);
-        sheet.value(row, 4, "TIMELINESS");
-        sheet.style(row, 4).bold(true);
-        row++;
-
-        // Data rows
-        if (carThresholdsList != null) {
-            for (CarThresholds ct : carThresholdsList) {
-                sheet.value(row, 0, safeString(ct.getCar_name()));
-                sheet.style(row, 0).wrapText(true);
+    @FunctionalInterface
+    private interface SheetTask {
+        void write() throws IOException;
+    }
 
-                sheet.value(row, 1, ct.getAccuracy());
-                sheet.value(row, 2, ct.getCompleteness());
-                sheet.value(row, 3, ct.getConsistency());
-                sheet.value(row, 4, ct.getTimeliness());
-                row++;
-            }
-        }
+    @FunctionalInterface
+    private interface MeteredExport {
+        void write(OutputStream out, ExportListener listener, ExportMetrics.Recorder recorder) throws IOException;
     }
 
     // --- Utility methods --- //
@@ -0,0 +1,291 @@
+package com.example.excel;
+
+import org.dhatim.fastexcel.writer.Workbook;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * JMH benchmarks for the PKP export: the whole workbook and each tabular sheet on its own.
+ *
+ * Output goes to a counting null stream, so only generation and compression are measured.
+ * Rows are cycled from a pool of pre-built beans (up to {@value #MAX_POOL} distinct rows),
+ * which keeps the benchmark's own heap flat even at a million rows.
+ *
+ * There is no separate build for the benchmark. Compile it with the export sources and put
+ * {@code jmh-core} and {@code jmh-generator-annprocess} (1.37) on the javac classpath. The
+ * annotation processor writes the generated harness and {@code META-INF/BenchmarkList} into
+ * the output directory, and JMH's own main class runs from there:
+ * <pre>
+ * javac -cp fastexcel.jar:jmh-core.jar:jmh-generator-annprocess.jar -d bench *.java
+ * java -cp bench:fastexcel.jar:opczip.jar:jmh-core.jar:jopt-simple.jar:commons-math3.jar \
+ *     org.openjdk.jmh.Main ExcelServiceBenchmark -prof gc
+ * </pre>
+ *
+ * The {@code bytes} and {@code rows} aux counters give bytes per row, and {@code -prof gc}
+ * adds allocation rates. Compare compression levels (CPU time against {@code bytes}) with
+ * e.g. {@code -p compressionLevel=1,6,9}, and pick rows with e.g. {@code -p rows=1000}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ExcelServiceBenchmark {
+
+    static final int MAX_POOL = 65_536;
+
+    private static final String[] DIMENSIONS = {"Accuracy", "Completeness", "Consistency", "Timeliness"};
+    private static final String[] RAG = {"Red", "Amber", "Green", "NA"};
+    private static final LocalDate PKP_DATE = LocalDate.of(2024, 12, 31);
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    /** Deflate level of the workbooks; {@code -1} is the default level. */
+    @Param({"-1"})
+    public int compressionLevel;
+
+    private final ExcelService excelService = new ExcelService();
+
+    private PkpPdf pkpPdf;
+    private List<PksPdf> pksPdfList;
+    private List<PkpResults> pkpResults;
+    private List<KrfResult> pksDetails;
+    private List<CarResults> carResults;
+    private List<ExcludedCars> excludedCars;
+    private List<CarThresholds> carThresholds;
+
+    /**
+     * Per-thread output counters reported next to the timings.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Output {
+        public long bytes;
+        public long rows;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            rows = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createData() {
+        excelService.setCompressionLevel(compressionLevel);
+        int pool = Math.min(rows, MAX_POOL);
+
+        pkpPdf = new PkpPdf();
+        pkpPdf.setPkp_name("PKP Benchmark");
+        pkpPdf.setPkp_date(PKP_DATE);
+        pkpPdf.setAccuracy("Green");
+        pkpPdf.setCompleteness("Amber");
+        pkpPdf.setConsistency("Red");
+        pkpPdf.setTimeliness("Green");
+        pkpPdf.setAccuracy_amended("Green");
+        pkpPdf.setCompleteness_amended("Green");
+        pkpPdf.setConsistency_amended("Amber");
+        pkpPdf.setTimeliness_amended("Green");
+        pkpPdf.setPkp_comment("Synthetic benchmark data");
+        pkpPdf.setPkp_comment_timestamp("2024-12-31T12:00:00");
+        pkpPdf.setPkp_comment_uuid("00000000-0000-0000-0000-000000000000");
+
+        pksPdfList = build(50, i -> {
+            PksPdf pks = new PksPdf();
+            pks.setPks_name("PKS " + i);
+            pks.setAccuracy(RAG[i & 3]);
+            pks.setCompleteness(RAG[(i + 1) & 3]);
+            pks.setConsistency(RAG[(i + 2) & 3]);
+            pks.setTimeliness(RAG[(i + 3) & 3]);
+            return pks;
+        });
+
+        pkpResults = build(DIMENSIONS.length, i -> {
+            PkpResults pr = new PkpResults();
+            pr.setPkp_id(1);
+            pr.setPkp_date(PKP_DATE);
+            pr.setPkp_name("PKP Benchmark");
+            pr.setDimension(DIMENSIONS[i]);
+            pr.setRed(i);
+            pr.setAmber(i * 2);
+            pr.setGreen(i * 3);
+            pr.setNa(1);
+            pr.setPkp_status(RAG[i & 3]);
+            pr.setPkp_status_amended(RAG[(i + 1) & 3]);
+            return pr;
+        });
+
+        pksDetails = build(pool, i -> {
+            KrfResult kr = new KrfResult();
+            kr.setPkp_id(1);
+            kr.setPks_id(i / DIMENSIONS.length);
+            kr.setPkp_date(PKP_DATE);
+            kr.setPks_name("PKS " + (i / DIMENSIONS.length));
+            kr.setDimension(DIMENSIONS[i & 3]);
+            kr.setRed(i % 7);
+            kr.setAmber(i % 11);
+            kr.setGreen(i % 13);
+            kr.setNa(i % 3);
+            kr.setRag_status(RAG[(i >> 2) & 3]);
+            return kr;
+        });
+
+        carResults = build(pool, i -> {
+            CarResults cr = new CarResults();
+            cr.setCar_id(i);
+            cr.setCar_name("Car " + i);
+            cr.setDimension(DIMENSIONS[i & 3]);
+            cr.setRed("< " + (i % 50));
+            cr.setAmber("< " + (i % 80));
+            cr.setCar_score((i % 5 == 0) ? null : (i % 1000) / 10.0);
+            cr.setCar_status(RAG[(i >> 2) & 3]);
+            return cr;
+        });
+
+        excludedCars = build(pool, i -> {
+            ExcludedCars ec = new ExcludedCars();
+            ec.setCar_id(i);
+            ec.setCar_name("Car " + i);
+            ec.setExclusion_reason("Excluded by rule " + (i % 20));
+            return ec;
+        });
+
+        carThresholds = build(pool, i -> {
+            CarThresholds ct = new CarThresholds();
+            ct.setCar_name("Car " + i);
+            ct.setAccuracy(90);
+            ct.setCompleteness(95);
+            ct.setConsistency(85);
+            ct.setTimeliness(99);
+            return ct;
+        });
+    }
+
+    /**
+     * Whole workbook; the PKS_details and Car_results sheets carry {@code rows} rows each,
+     * Cars_thresholds a tenth and Excluded_cars a hundredth of that.
+     */
+    @Benchmark
+    public long generateExcel(Output output) throws IOException {
+        CountingOutputStream out = CountingOutputStream.nullStream();
+        excelService.writeWorkbook(out, workbookInput(), ExportListener.NONE);
+        output.bytes += out.getCount();
+        output.rows += workbookRows();
+        return out.getCount();
+    }
+
+    /**
+     * Same data as {@link #generateExcel}, exported as CSV files in a ZIP.
+     */
+    @Benchmark
+    public long generateCsvZip(Output output) throws IOException {
+        CountingOutputStream out = CountingOutputStream.nullStream();
+        excelService.writeDelimited(out, workbookInput(), DelimitedFormat.CSV, ExportListener.NONE);
+        output.bytes += out.getCount();
+        output.rows += workbookRows();
+        return out.getCount();
+    }
+
+    @Benchmark
+    public long pkpDetailsSheet(Output output) throws IOException {
+        return writeSheet(ExportSchemas.PKP_DETAILS, cycle(pkpResults, rows), output);
+    }
+
+    @Benchmark
+    public long pksDetailsSheet(Output output) throws IOException {
+        return writeSheet(ExportSchemas.PKS_DETAILS, cycle(pksDetails, rows), output);
+    }
+
+    @Benchmark
+    public long carResultsSheet(Output output) throws IOException {
+        return writeSheet(ExportSchemas.CAR_RESULTS, cycle(carResults, rows), output);
+    }
+
+    @Benchmark
+    public long excludedCarsSheet(Output output) throws IOException {
+        return writeSheet(ExportSchemas.EXCLUDED_CARS, cycle(excludedCars, rows), output);
+    }
+
+    @Benchmark
+    public long carThresholdsSheet(Output output) throws IOException {
+        return writeSheet(ExportSchemas.CAR_THRESHOLDS, cycle(carThresholds, rows), output);
+    }
+
+    private <T> long writeSheet(SheetSchema<T> schema, RowSource<T> source, Output output) throws IOException {
+        CountingOutputStream out = CountingOutputStream.nullStream();
+        long written;
+        try (Workbook workbook = new Workbook(out, "PKP", "1.0")) {
+            workbook.setCompressionLevel(compressionLevel);
+            written = schema.write(workbook.newWorksheet(schema.getSheetName()), source, FlushPolicy.defaults());
+            workbook.finish();
+        }
+        output.bytes += out.getCount();
+        output.rows += written;
+        return out.getCount();
+    }
+
+    private ExportInput workbookInput() {
+        return new ExportInput(pkpPdf, pksPdfList,
+                cycle(pkpResults, pkpResults.size()),
+                cycle(pksDetails, rows),
+                cycle(carResults, rows),
+                cycle(excludedCars, Math.max(1, rows / 100)),
+                cycle(carThresholds, Math.max(1, rows / 10)));
+    }
+
+    private long workbookRows() {
+        return pkpResults.size() + 2L * rows + Math.max(1, rows / 100) + Math.max(1, rows / 10);
+    }
+
+    private static <T> List<T> build(int count, IntFunction<T> factory) {
+        List<T> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(factory.apply(i));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Yields {@code count} rows by cycling over {@code pool}, without allocating per row.
+     */
+    private static <T> RowSource<T> cycle(List<T> pool, int count) {
+        return new RowSource<T>() {
+            private int produced;
+
+            @Override
+            public boolean hasNext() {
+                return produced < count;
+            }
+
+            @Override
+            public T next() {
+                if (produced >= count) {
+                    throw new NoSuchElementException();
+                }
+                return pool.get(produced++ % pool.size());
+            }
+        };
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.excel;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for exports, sized by the heap they are expected to need.
+ *
+ * Each export's cost is estimated from the row counts of its sources
+ * ({@link RowSource#sizeHint()}) and reserved against a fixed byte budget for as long as the
+ * export runs. Exports that do not fit wait in a FIFO queue, so a large export is not starved
+ * by a stream of smaller ones; once {@code maxQueued} exports are waiting, or one has waited
+ * {@code maxWait}, further exports are rejected with an {@link ExportRejectedException}.
+ * Exports estimated below {@code smallExportBytes} bypass the queue and the budget entirely.
+ *
+ * The estimate is deliberately coarse: {@code bytesPerRow} per known row (the row objects plus
+ * fastexcel's buffered cells), {@code streamingSourceBytes} per source of unknown size (a
+ * cursor or stream only holds its current batch) and {@code baseBytes} per workbook.
+ * An export larger than the whole budget is admitted alone.
+ */
+public class ExportAdmission {
+
+    public static final long DEFAULT_BYTES_PER_ROW = 1024;
+    public static final long DEFAULT_STREAMING_SOURCE_BYTES = 4L << 20;
+    public static final long DEFAULT_BASE_BYTES = 8L << 20;
+    public static final long DEFAULT_SMALL_EXPORT_BYTES = 32L << 20;
+    public static final int DEFAULT_MAX_QUEUED = 16;
+    public static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(30);
+    public static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(30);
+
+    /** Permit of an export that holds no reservation, e.g. a small one. */
+    public static final Permit NONE = new Permit(null, 0);
+
+    private final long budgetBytes;
+
+    private volatile long bytesPerRow = DEFAULT_BYTES_PER_ROW;
+    private volatile long streamingSourceBytes = DEFAULT_STREAMING_SOURCE_BYTES;
+    private volatile long baseBytes = DEFAULT_BASE_BYTES;
+    private volatile long smallExportBytes = DEFAULT_SMALL_EXPORT_BYTES;
+    private volatile int maxQueued = DEFAULT_MAX_QUEUED;
+    private volatile Duration maxWait = DEFAULT_MAX_WAIT;
+    private volatile Duration retryAfter = DEFAULT_RETRY_AFTER;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    /** Waiting exports in arrival order; only the head may take a reservation. Guarded by {@code lock}. */
+    private final ArrayDeque<Object> queue = new ArrayDeque<>();
+    /** Guarded by {@code lock}. */
+    private long reservedBytes;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Budget of half the maximum heap.
+     */
+    public ExportAdmission() {
+        this(Runtime.getRuntime().maxMemory() / 2);
+    }
+
+    public ExportAdmission(long budgetBytes) {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("budgetBytes must be positive: " + budgetBytes);
+        }
+        this.budgetBytes = budgetBytes;
+    }
+
+    public void setBytesPerRow(long bytesPerRow) {
+        this.bytesPerRow = bytesPerRow;
+    }
+
+    public void setStreamingSourceBytes(long streamingSourceBytes) {
+        this.streamingSourceBytes = streamingSourceBytes;
+    }
+
+    public void setBaseBytes(long baseBytes) {
+        this.baseBytes = baseBytes;
+    }
+
+    /**
+     * Exports estimated at or below this size are admitted immediately without a reservation.
+     */
+    public void setSmallExportBytes(long smallExportBytes) {
+        this.smallExportBytes = smallExportBytes;
+    }
+
+    public void setMaxQueued(int maxQueued) {
+        this.maxQueued = maxQueued;
+    }
+
+    public void setMaxWait(Duration maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Value of {@link ExportRejectedException#getRetryAfterSeconds()} for rejected exports.
+     */
+    public void setRetryAfter(Duration retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Estimated heap needed to export {@code input}.
+     */
+    public long estimate(ExportInput input) {
+        return baseBytes
+                + sourceBytes(input.getPkpResults())
+                + sourceBytes(input.getPksDetails())
+                + sourceBytes(input.getCarResults())
+                + sourceBytes(input.getExcludedCars())
+                + sourceBytes(input.getCarThresholds());
+    }
+
+    /**
+     * Reserves the estimated cost of {@code input}, waiting for its turn if the budget is
+     * exhausted. Close the returned permit when the export is done.
+     *
+     * @throws ExportRejectedException if the queue is full or the wait exceeds {@code maxWait}
+     */
+    public Permit acquire(ExportInput input) throws InterruptedException {
+        return acquire(estimate(input));
+    }
+
+    public Permit acquire(long bytes) throws InterruptedException {
+        if (bytes <= smallExportBytes) {
+            return NONE;
+        }
+        long cost = Math.min(bytes, budgetBytes);
+        lock.lock();
+        try {
+            if (queue.isEmpty() && reservedBytes + cost <= budgetBytes) {
+                reservedBytes += cost;
+                return new Permit(this, cost);
+            }
+            if (queue.size() >= maxQueued) {
+                throw reject("Export queue is full (" + queue.size() + " waiting)");
+            }
+            Object ticket = new Object();
+            queue.addLast(ticket);
+            try {
+                long remaining = maxWait.toNanos();
+                while (queue.peekFirst() != ticket || reservedBytes + cost > budgetBytes) {
+                    if (remaining <= 0) {
+                        throw reject("Export waited longer than " + maxWait.getSeconds() + "s for memory");
+                    }
+                    remaining = changed.awaitNanos(remaining);
+                }
+                reservedBytes += cost;
+                return new Permit(this, cost);
+            } finally {
+                queue.remove(ticket);
+                // The next export in line may fit now, or at least be at the head
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public long getReservedBytes() {
+        lock.lock();
+        try {
+            return reservedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private long sourceBytes(RowSource<?> source) {
+        long rows = source.sizeHint();
+        return (rows < 0) ? streamingSourceBytes : rows * bytesPerRow;
+    }
+
+    private ExportRejectedException reject(String message) {
+        rejected.incrementAndGet();
+        return new ExportRejectedException(message, Math.max(1, retryAfter.getSeconds()));
+    }
+
+    private void release(long cost) {
+        lock.lock();
+        try {
+            reservedBytes -= cost;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A reservation of heap budget; releasing it more than once has no effect.
+     */
+    public static final class Permit implements AutoCloseable {
+
+        private final ExportAdmission owner;
+        private final long bytes;
+        private boolean released;
+
+        private Permit(ExportAdmission owner, long bytes) {
+            this.owner = owner;
+            this.bytes = bytes;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                if (bytes > 0) {
+                    owner.release(bytes);
+                }
+            }
+        }
+    }
+}
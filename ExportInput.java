@@ -0,0 +1,149 @@
+package com.example.excel;
+
+import java.util.List;
+
+/**
+ * Everything needed to render one PKP workbook: the summary data plus one row source per
+ * tabular sheet. Closing the input closes all of its sources.
+ */
+public final class ExportInput implements AutoCloseable {
+
+    private final PkpPdf pkpPdf;
+    private final List<PksPdf> pksPdfList;
+    private final RowSource<PkpResults> pkpResults;
+    private final RowSource<KrfResult> pksDetails;
+    private final RowSource<CarResults> carResults;
+    private final RowSource<ExcludedCars> excludedCars;
+    private final RowSource<CarThresholds> carThresholds;
+    private final RagAggregator aggregator;
+
+    public ExportInput(
+            PkpPdf pkpPdf,
+            List<PksPdf> pksPdfList,
+            RowSource<PkpResults> pkpResults,
+            RowSource<KrfResult> pksDetails,
+            RowSource<CarResults> carResults,
+            RowSource<ExcludedCars> excludedCars,
+            RowSource<CarThresholds> carThresholds
+    ) {
+        this(pkpPdf, pksPdfList, pkpResults, pksDetails, carResults, excludedCars, carThresholds, null);
+    }
+
+    private ExportInput(
+            PkpPdf pkpPdf,
+            List<PksPdf> pksPdfList,
+            RowSource<PkpResults> pkpResults,
+            RowSource<KrfResult> pksDetails,
+            RowSource<CarResults> carResults,
+            RowSource<ExcludedCars> excludedCars,
+            RowSource<CarThresholds> carThresholds,
+            RagAggregator aggregator
+    ) {
+        this.pkpPdf = pkpPdf;
+        this.pksPdfList = pksPdfList;
+        this.pkpResults = pkpResults;
+        this.pksDetails = pksDetails;
+        this.carResults = carResults;
+        this.excludedCars = excludedCars;
+        this.carThresholds = carThresholds;
+        this.aggregator = aggregator;
+    }
+
+    public static ExportInput of(
+            PkpPdf pkpPdf,
+            List<PksPdf> pksPdfList,
+            List<PkpResults> pkpResultsList,
+            List<KrfResult> pksDetailsList,
+            List<CarResults> carResultsList,
+            List<ExcludedCars> excludedCarsList,
+            List<CarThresholds> carThresholdsList
+    ) {
+        return new ExportInput(pkpPdf, pksPdfList,
+                RowSource.of(pkpResultsList),
+                RowSource.of(pksDetailsList),
+                RowSource.of(carResultsList),
+                RowSource.of(excludedCarsList),
+                RowSource.of(carThresholdsList));
+    }
+
+    /**
+     * Input whose PKP_details and PKS_details rows are aggregated from {@code carResults} while
+     * the car rows are written, instead of being loaded separately. Exports write the car rows
+     * before the details; see {@link RagAggregator}.
+     */
+    public static ExportInput aggregated(
+            PkpPdf pkpPdf,
+            List<PksPdf> pksPdfList,
+            RagAggregator aggregator,
+            RowSource<CarResults> carResults,
+            RowSource<ExcludedCars> excludedCars,
+            RowSource<CarThresholds> carThresholds
+    ) {
+        return new ExportInput(pkpPdf, pksPdfList,
+                aggregator.pkpResults(),
+                aggregator.pksResults(),
+                aggregator.tee(carResults),
+                excludedCars,
+                carThresholds,
+                aggregator);
+    }
+
+    public PkpPdf getPkpPdf() {
+        return pkpPdf;
+    }
+
+    public List<PksPdf> getPksPdfList() {
+        return pksPdfList;
+    }
+
+    public RowSource<PkpResults> getPkpResults() {
+        return pkpResults;
+    }
+
+    public RowSource<KrfResult> getPksDetails() {
+        return pksDetails;
+    }
+
+    public RowSource<CarResults> getCarResults() {
+        return carResults;
+    }
+
+    public RowSource<ExcludedCars> getExcludedCars() {
+        return excludedCars;
+    }
+
+    public RowSource<CarThresholds> getCarThresholds() {
+        return carThresholds;
+    }
+
+    /**
+     * Whether the PKP_details and PKS_details rows are derived from the car rows, which then
+     * have to be consumed first.
+     */
+    public boolean isAggregated() {
+        return aggregator != null;
+    }
+
+    /**
+     * Reads any car rows not consumed yet, for exports that skip the Car_results sheet but
+     * still need the aggregated details.
+     */
+    void completeAggregation() {
+        if (aggregator != null && !aggregator.isComplete()) {
+            while (carResults.hasNext()) {
+                carResults.next();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try (RowSource<PkpResults> a = pkpResults;
+             RowSource<KrfResult> b = pksDetails;
+             RowSource<CarResults> c = carResults;
+             RowSource<ExcludedCars> d = excludedCars;
+             RowSource<CarThresholds> e = carThresholds) {
+            // closes every source, even if one of them fails
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.excel;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of one asynchronous export, see {@link ExportJobService}.
+ *
+ * Progress counters are updated by the worker thread while the workbook is written
+ * and can be polled from any thread.
+ */
+public class ExportJob {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    private final String id;
+    private final String fileName;
+    private final Instant createdAt = Instant.now();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicInteger sheetsWritten = new AtomicInteger();
+    private final AtomicInteger sheetsStarted = new AtomicInteger();
+    private final int plannedSheets;
+
+    private volatile Status status = Status.QUEUED;
+    private volatile String currentSheet;
+    private volatile Path file;
+    private volatile String error;
+    private volatile Instant finishedAt;
+
+    ExportJob(String id, String fileName, int plannedSheets) {
+        this.id = id;
+        this.fileName = fileName;
+        this.plannedSheets = plannedSheets;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    public int getSheetsWritten() {
+        return sheetsWritten.get();
+    }
+
+    /**
+     * Worksheets of the workbook: the PKP sheet plus every shard of the tabular sheets as
+     * planned from the size hints, raised when a source turns out larger than its hint.
+     */
+    public int getTotalSheets() {
+        return Math.max(plannedSheets, sheetsStarted.get());
+    }
+
+    /** Name of the sheet most recently started, {@code null} before the job runs. */
+    public String getCurrentSheet() {
+        return currentSheet;
+    }
+
+    /** Failure message when {@link #getStatus()} is {@link Status#FAILED}. */
+    public String getError() {
+        return error;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    ExportListener progressListener() {
+        return new ExportListener() {
+            @Override
+            public void sheetStarted(String sheetName) {
+                sheetsStarted.incrementAndGet();
+                currentSheet = sheetName;
+            }
+
+            @Override
+            public void rowsWritten(String sheetName, int rows) {
+                rowsWritten.addAndGet(rows);
+            }
+
+            @Override
+            public void sheetFinished(String sheetName, long totalRows) {
+                sheetsWritten.incrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * @return {@code false} if the job already failed while it was queued
+     */
+    synchronized boolean running() {
+        if (status != Status.QUEUED) {
+            return false;
+        }
+        status = Status.RUNNING;
+        return true;
+    }
+
+    synchronized void done(Path file) {
+        this.file = file;
+        this.finishedAt = Instant.now();
+        this.status = Status.DONE;
+    }
+
+    synchronized void failed(String error) {
+        this.error = error;
+        this.finishedAt = Instant.now();
+        this.status = Status.FAILED;
+    }
+
+    /**
+     * Fails the job unless a worker has already started it.
+     *
+     * @return {@code false} if the job is no longer queued
+     */
+    synchronized boolean failQueued(String error) {
+        if (status != Status.QUEUED) {
+            return false;
+        }
+        failed(error);
+        return true;
+    }
+}
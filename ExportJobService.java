@@ -0,0 +1,255 @@
+package com.example.excel;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous PKP exports.
+ *
+ * {@link #submit} queues the export on a small bounded pool and returns immediately; the
+ * workbook is rendered into a temp file while the client polls {@link #getJob} for progress,
+ * and is fetched later with {@link #download}. Request threads and HTTP connections are
+ * therefore not held for the duration of a large export. Finished jobs (and their files)
+ * are kept for {@link #setRetention retention} and then purged by a background sweep, which
+ * also fails and evicts jobs that have waited in the queue for longer than that.
+ *
+ * Pool size, queue capacity and work directory come from the {@code pkp.export.jobs.*}
+ * properties; an empty directory means a fresh temp directory.
+ */
+@Service
+public class ExportJobService {
+
+    private static final long PURGE_INTERVAL_SECONDS = 60;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final ExcelService excelService;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService purger;
+    private final Path workDirectory;
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+
+    private volatile Duration retention = Duration.ofHours(1);
+
+    public ExportJobService(ExcelService excelService,
+                            @Value("${pkp.export.jobs.threads:2}") int threads,
+                            @Value("${pkp.export.jobs.queue-capacity:32}") int queueCapacity,
+                            @Value("${pkp.export.jobs.directory:}") String workDirectory) throws IOException {
+        this.excelService = excelService;
+        this.workDirectory = workDirectory.isEmpty()
+                ? Files.createTempDirectory("pkp-exports")
+                : Files.createDirectories(Path.of(workDirectory));
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "excel-export-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.purger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "excel-export-purge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        purger.scheduleWithFixedDelay(this::purgeExpired,
+                PURGE_INTERVAL_SECONDS, PURGE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void setRetention(Duration retention) {
+        this.retention = retention;
+    }
+
+    /**
+     * Queues an export of {@code input}. The row sources are consumed on a worker thread,
+     * so they must not be bound to the submitting thread (e.g. a request-scoped transaction).
+     *
+     * @throws RejectedExecutionException if the export queue is full; the input is closed
+     */
+    public ExportJob submit(ExportInput input) {
+        ExportJob job = new ExportJob(UUID.randomUUID().toString(), ExcelService.fileNameOf(input.getPkpPdf()),
+                ExcelService.worksheetCount(input));
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(new JobTask(job, input));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            input.close();
+            throw e;
+        }
+        return job;
+    }
+
+    /**
+     * @return the job, or {@code null} if it is unknown or has been purged
+     */
+    public ExportJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Streams the finished workbook of job {@code id} into the response.
+     *
+     * @throws IllegalArgumentException if the job is unknown
+     * @throws IllegalStateException    if the job has not finished successfully
+     */
+    public void download(String id, HttpServletResponse response) throws IOException {
+        ExportJob job = jobs.get(id);
+        if (job == null) {
+            throw new IllegalArgumentException("Unknown export job " + id);
+        }
+        if (job.getStatus() != ExportJob.Status.DONE) {
+            throw new IllegalStateException("Export job " + id + " is " + job.getStatus());
+        }
+
+        try (FileChannel file = FileChannel.open(job.getFile(), StandardOpenOption.READ)) {
+            ExcelService.setDownloadHeaders(response, job.getFileName());
+            response.setContentLengthLong(file.size());
+            try (ServletOutputStream outputStream = response.getOutputStream()) {
+                ReportCache.transferTo(file, outputStream);
+                outputStream.flush();
+            }
+        }
+    }
+
+    /**
+     * Fails the queued jobs, closing their inputs, interrupts the running ones and, once they
+     * have stopped, removes every job file.
+     */
+    @PreDestroy
+    public void shutdown() throws IOException {
+        purger.shutdownNow();
+        for (Runnable queued : executor.shutdownNow()) {
+            JobTask task = (JobTask) queued;
+            task.job.failQueued("Export service shut down");
+            task.input.close();
+        }
+        try {
+            executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (ExportJob job : jobs.values()) {
+            deleteFile(job);
+        }
+        jobs.clear();
+    }
+
+    private void run(ExportJob job, ExportInput input) {
+        if (!job.running()) {
+            // Failed while it was queued (expired or shut down)
+            input.close();
+            return;
+        }
+        Path file = workDirectory.resolve(job.getId() + ".xlsx");
+        try (ExportAdmission.Permit permit = excelService.acquirePermit(input);
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            excelService.writeWorkbook(out, input, job.progressListener());
+        } catch (Throwable e) {
+            // Errors too (e.g. OutOfMemoryError), so the job never stays RUNNING with a stray file
+            input.close();
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // left for the OS temp cleaner
+            }
+            job.failed(e.toString());
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+            return;
+        }
+        job.done(file);
+    }
+
+    private void purgeExpired() {
+        Instant cutoff = Instant.now().minus(retention);
+        Iterator<ExportJob> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            ExportJob job = it.next();
+            boolean abandoned = job.getStatus() == ExportJob.Status.QUEUED
+                    && job.getCreatedAt().isBefore(cutoff)
+                    && abandon(job, "Export job expired in the queue");
+            Instant finishedAt = job.getFinishedAt();
+            if (abandoned || (finishedAt != null && finishedAt.isBefore(cutoff))) {
+                it.remove();
+                try {
+                    deleteFile(job);
+                } catch (IOException ignored) {
+                    // left for the OS temp cleaner
+                }
+            }
+        }
+    }
+
+    /**
+     * Fails a job that has not started yet and takes it out of the queue, closing its input.
+     * A worker that dequeued it in the meantime closes the input itself, see {@link #run}.
+     */
+    private boolean abandon(ExportJob job, String reason) {
+        if (!job.failQueued(reason)) {
+            return false;
+        }
+        for (Runnable queued : executor.getQueue()) {
+            JobTask task = (JobTask) queued;
+            if (task.job == job && executor.remove(task)) {
+                task.input.close();
+                break;
+            }
+        }
+        return true;
+    }
+
+    private static void deleteFile(ExportJob job) throws IOException {
+        Path file = job.getFile();
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Queue entry of a job, so that jobs drained from the queue can still be failed and their
+     * inputs closed.
+     */
+    private final class JobTask implements Runnable {
+        final ExportJob job;
+        final ExportInput input;
+
+        JobTask(ExportJob job, ExportInput input) {
+            this.job = job;
+            this.input = input;
+        }
+
+        @Override
+        public void run() {
+            ExportJobService.this.run(job, input);
+        }
+    }
+}
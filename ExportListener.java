@@ -0,0 +1,27 @@
+package com.example.excel;
+
+/**
+ * Callbacks fired while a workbook is being written, e.g. for progress reporting.
+ *
+ * Calls for one sheet come from the thread writing that sheet; with parallel sheet
+ * generation different sheets report concurrently, so implementations must be thread-safe.
+ * A dataset spread over several worksheets ({@code PKS_details}, {@code PKS_details_2}, ...)
+ * reports each worksheet as a sheet of its own.
+ */
+public interface ExportListener {
+
+    ExportListener NONE = new ExportListener() {
+    };
+
+    default void sheetStarted(String sheetName) {
+    }
+
+    /**
+     * Reports {@code rows} more data rows written to {@code sheetName} (in blocks, not per row).
+     */
+    default void rowsWritten(String sheetName, int rows) {
+    }
+
+    default void sheetFinished(String sheetName, long totalRows) {
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.excel;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer instrumentation of the export path.
+ *
+ * Per export: wall time ({@code pkp.export.duration}, tagged with the outcome), bytes written
+ * ({@code pkp.export.bytes}) and time spent in {@code workbook.finish()}
+ * ({@code pkp.export.finish.duration}). Per sheet: wall time, data rows and bytes allocated by
+ * the writing thread ({@code pkp.export.sheet.*}, tagged with the sheet name).
+ *
+ * With {@link #setLogExports(boolean)} every export also emits one structured log line
+ * including the per-sheet breakdown and the heap delta across the export.
+ */
+public class ExportMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(ExportMetrics.class);
+
+    private final MeterRegistry registry;
+    private final Timer finishTimer;
+    private final DistributionSummary bytesSummary;
+    private final Map<String, Timer> exportTimers = new ConcurrentHashMap<>();
+    private final Map<String, SheetMeters> sheetMeters = new ConcurrentHashMap<>();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private volatile boolean logExports;
+
+    public ExportMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.finishTimer = Timer.builder("pkp.export.finish.duration")
+                .description("Time spent in workbook.finish()")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.bytesSummary = DistributionSummary.builder("pkp.export.bytes")
+                .baseUnit("bytes")
+                .description("Workbook size written to the output stream")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public void setLogExports(boolean logExports) {
+        this.logExports = logExports;
+    }
+
+    /**
+     * Starts recording one export. The returned recorder is also the listener to pass to
+     * the sheet writers.
+     */
+    public Recorder start(String pkpName, ExportListener delegate) {
+        return new Recorder(pkpName, delegate);
+    }
+
+    private Timer exportTimer(String outcome) {
+        return exportTimers.computeIfAbsent(outcome, o -> Timer.builder("pkp.export.duration")
+                .tag("outcome", o)
+                .description("Wall time of a complete export")
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    private SheetMeters sheetMeters(String sheetName) {
+        return sheetMeters.computeIfAbsent(sheetName, name -> new SheetMeters(
+                Timer.builder("pkp.export.sheet.duration")
+                        .tag("sheet", name)
+                        .publishPercentileHistogram()
+                        .register(registry),
+                DistributionSummary.builder("pkp.export.sheet.rows")
+                        .tag("sheet", name)
+                        .baseUnit("rows")
+                        .publishPercentileHistogram()
+                        .register(registry),
+                DistributionSummary.builder("pkp.export.sheet.allocated")
+                        .tag("sheet", name)
+                        .baseUnit("bytes")
+                        .register(registry)));
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, or -1 when the JVM cannot tell.
+     */
+    private long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static final class SheetMeters {
+        final Timer duration;
+        final DistributionSummary rows;
+        final DistributionSummary allocated;
+
+        SheetMeters(Timer duration, DistributionSummary rows, DistributionSummary allocated) {
+            this.duration = duration;
+            this.rows = rows;
+            this.allocated = allocated;
+        }
+    }
+
+    /**
+     * Measurements of a single export; sheets may report from different threads.
+     */
+    public final class Recorder implements ExportListener {
+
+        private final String pkpName;
+        private final ExportListener delegate;
+        private final long startNanos = System.nanoTime();
+        private final long startHeap = usedHeap();
+        /** Sheet name => {start nanos, start allocated bytes}. */
+        private final Map<String, long[]> openSheets = new ConcurrentHashMap<>();
+        private final StringBuffer sheetLog = new StringBuffer();
+        private volatile long finishNanos;
+
+        private Recorder(String pkpName, ExportListener delegate) {
+            this.pkpName = pkpName;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void sheetStarted(String sheetName) {
+            openSheets.put(sheetName, new long[]{System.nanoTime(), allocatedBytes()});
+            delegate.sheetStarted(sheetName);
+        }
+
+        @Override
+        public void rowsWritten(String sheetName, int rows) {
+            delegate.rowsWritten(sheetName, rows);
+        }
+
+        @Override
+        public void sheetFinished(String sheetName, long totalRows) {
+            long[] start = openSheets.remove(sheetName);
+            if (start != null) {
+                long nanos = System.nanoTime() - start[0];
+                long allocated = (start[1] < 0) ? -1 : allocatedBytes() - start[1];
+                SheetMeters meters = sheetMeters(sheetName);
+                meters.duration.record(nanos, TimeUnit.NANOSECONDS);
+                meters.rows.record(totalRows);
+                if (allocated >= 0) {
+                    meters.allocated.record(allocated);
+                }
+                if (logExports) {
+                    sheetLog.append(' ').append(sheetName)
+                            .append("={ms=").append(TimeUnit.NANOSECONDS.toMillis(nanos))
+                            .append(",rows=").append(totalRows)
+                            .append(",alloc=").append(allocated).append('}');
+                }
+            }
+            delegate.sheetFinished(sheetName, totalRows);
+        }
+
+        /**
+         * Records the time spent in {@code workbook.finish()}.
+         */
+        public void workbookFinished(long nanos) {
+            finishNanos = nanos;
+            finishTimer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Completes the export measurement.
+         *
+         * @param bytes bytes pushed to the output stream
+         * @param error the failure, or {@code null} on success
+         */
+        public void exportFinished(long bytes, Throwable error) {
+            long nanos = System.nanoTime() - startNanos;
+            exportTimer(error == null ? "success" : "failure").record(nanos, TimeUnit.NANOSECONDS);
+            if (error == null) {
+                bytesSummary.record(bytes);
+            }
+            if (logExports) {
+                log.info("pkp_export pkp=\"{}\" outcome={} ms={} bytes={} finish_ms={} heap_delta={}{}",
+                        pkpName,
+                        (error == null) ? "success" : "failure",
+                        TimeUnit.NANOSECONDS.toMillis(nanos),
+                        bytes,
+                        TimeUnit.NANOSECONDS.toMillis(finishNanos),
+                        usedHeap() - startHeap,
+                        sheetLog);
+            }
+        }
+    }
+}
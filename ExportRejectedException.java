@@ -0,0 +1,23 @@
+package com.example.excel;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown by {@link ExportAdmission} when an export cannot be admitted: the queue is full or
+ * the export waited longer than allowed. Clients should retry after {@link #getRetryAfterSeconds}.
+ */
+public class ExportRejectedException extends RejectedExecutionException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public ExportRejectedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
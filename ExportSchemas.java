@@ -0,0 +1,114 @@
+package com.example.excel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sheet schemas of the tabular worksheets in the PKP export.
+ *
+ * Adding a report sheet means declaring another schema here; {@link SheetSchema#write}
+ * takes care of the header, styling and flushing. Text columns are shared strings unless
+ * marked {@code inline()}, which is meant for mostly unique values like car names.
+ */
+public final class ExportSchemas {
+
+    /**
+     * 2) Worksheet "PKP_details"
+     */
+    public static final SheetSchema<PkpResults> PKP_DETAILS = SheetSchema.<PkpResults>builder("PKP_details")
+            .intColumn("PKP ID", PkpResults::getPkp_id)
+            .dateColumn("PKP DATE", PkpResults::getPkp_date)
+            .textColumn("PKP NAME", PkpResults::getPkp_name, CellStyle.WRAPPED, 80)
+            .textColumn("DIMENSION", PkpResults::getDimension, CellStyle.WRAPPED)
+            .intColumn("RED", PkpResults::getRed)
+            .intColumn("AMBER", PkpResults::getAmber)
+            .intColumn("GREEN", PkpResults::getGreen)
+            .intColumn("NA", PkpResults::getNa)
+            .textColumn("PKP STATUS", PkpResults::getPkp_status, CellStyle.WRAPPED)
+            .textColumn("PKP STATUS AMENDED", PkpResults::getPkp_status_amended, CellStyle.WRAPPED)
+            .build();
+
+    /**
+     * 3) Worksheet "PKS_details"
+     */
+    public static final SheetSchema<KrfResult> PKS_DETAILS = SheetSchema.<KrfResult>builder("PKS_details")
+            .intColumn("PKP ID", KrfResult::getPkp_id)
+            .intColumn("PKS ID", KrfResult::getPks_id)
+            .dateColumn("PKP DATE", KrfResult::getPkp_date)
+            .textColumn("PKS NAME", KrfResult::getPks_name, CellStyle.WRAPPED)
+            .textColumn("DIMENSION", KrfResult::getDimension, CellStyle.WRAPPED)
+            .intColumn("RED", KrfResult::getRed)
+            .intColumn("AMBER", KrfResult::getAmber)
+            .intColumn("GREEN", KrfResult::getGreen)
+            .intColumn("NA", KrfResult::getNa)
+            .textColumn("RAG STATUS", KrfResult::getRag_status, CellStyle.WRAPPED)
+            .build();
+
+    /**
+     * 4) Worksheet "Car_results"
+     */
+    public static final SheetSchema<CarResults> CAR_RESULTS = SheetSchema.<CarResults>builder("Car_results")
+            .intColumn("CAR ID", CarResults::getCar_id)
+            .textColumn("CAR NAME", CarResults::getCar_name, CellStyle.WRAPPED).inline()
+            .textColumn("DIMENSION", CarResults::getDimension, CellStyle.WRAPPED)
+            .textColumn("RED", CarResults::getRed, CellStyle.WRAPPED)
+            .textColumn("AMBER", CarResults::getAmber, CellStyle.WRAPPED)
+            .numberColumn("CAR SCORE", CarResults::getCar_score)
+            .textColumn("CAR STATUS", CarResults::getCar_status, CellStyle.WRAPPED)
+            .build();
+
+    /**
+     * 5) Worksheet "Excluded_cars"
+     */
+    public static final SheetSchema<ExcludedCars> EXCLUDED_CARS = SheetSchema.<ExcludedCars>builder("Excluded_cars")
+            .intColumn("CAR ID", ExcludedCars::getCar_id)
+            .textColumn("CAR NAME", ExcludedCars::getCar_name, CellStyle.WRAPPED).inline()
+            .textColumn("EXCLUSION REASON", ExcludedCars::getExclusion_reason, CellStyle.WRAPPED).inline()
+            .build();
+
+    /**
+     * 6) Worksheet "Cars_thresholds"
+     */
+    public static final SheetSchema<CarThresholds> CAR_THRESHOLDS = SheetSchema.<CarThresholds>builder("Cars_thresholds")
+            .textColumn("CAR NAME", CarThresholds::getCar_name, CellStyle.WRAPPED).inline()
+            .intColumn("ACCURACY", CarThresholds::getAccuracy)
+            .intColumn("COMPLETENESS", CarThresholds::getCompleteness)
+            .intColumn("CONSISTENCY", CarThresholds::getConsistency)
+            .intColumn("TIMELINESS", CarThresholds::getTimeliness)
+            .build();
+
+    /**
+     * 1) Worksheet "PKP" as a flat dataset, used by the delimited export: the "System Based"
+     * and "Adjusted" PKP ratings followed by one row per PKS, see {@link #pkpSummaryRows}.
+     */
+    public static final SheetSchema<String[]> PKP_SUMMARY = SheetSchema.<String[]>builder("PKP")
+            .textColumn("LEVEL", row -> row[0])
+            .textColumn("NAME", row -> row[1])
+            .textColumn("ACCURACY", row -> row[2])
+            .textColumn("COMPLETENESS", row -> row[3])
+            .textColumn("CONSISTENCY", row -> row[4])
+            .textColumn("TIMELINESS", row -> row[5])
+            .build();
+
+    /**
+     * Rows of {@link #PKP_SUMMARY}.
+     */
+    public static RowSource<String[]> pkpSummaryRows(PkpPdf pkpPdf, List<PksPdf> pksPdfList) {
+        List<String[]> rows = new ArrayList<>(2 + (pksPdfList == null ? 0 : pksPdfList.size()));
+        rows.add(new String[]{"PKP", "System Based",
+                pkpPdf.getAccuracy(), pkpPdf.getCompleteness(), pkpPdf.getConsistency(), pkpPdf.getTimeliness()});
+        rows.add(new String[]{"PKP", "Adjusted",
+                pkpPdf.getAccuracy_amended(), pkpPdf.getCompleteness_amended(),
+                pkpPdf.getConsistency_amended(), pkpPdf.getTimeliness_amended()});
+        if (pksPdfList != null) {
+            for (PksPdf pks : pksPdfList) {
+                rows.add(new String[]{"PKS", pks.getPks_name(),
+                        pks.getAccuracy(), pks.getCompleteness(), pks.getConsistency(), pks.getTimeliness()});
+            }
+        }
+        return RowSource.of(rows);
+    }
+
+    private ExportSchemas() {
+    }
+}
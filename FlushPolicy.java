@@ -0,0 +1,115 @@
+package com.example.excel;
+
+import org.dhatim.fastexcel.writer.Worksheet;
+
+import java.io.IOException;
+
+/**
+ * Decides when a worksheet's buffered rows are pushed to the output stream.
+ *
+ * Without flushing, fastexcel keeps every cell of a worksheet in memory until the workbook
+ * is finished. Flushing every few thousand rows (or every few MB of estimated sheet XML)
+ * streams large sheets to the client as they are produced and keeps heap usage flat.
+ */
+public final class FlushPolicy {
+
+    /**
+     * Rough size of one cell in the sheet XML (tag, reference, style and value),
+     * used to turn a byte budget into a row count.
+     */
+    static final int ESTIMATED_BYTES_PER_CELL = 40;
+
+    public static final FlushPolicy NEVER = new FlushPolicy(0, 0);
+
+    private final int rowInterval;
+    private final long byteInterval;
+
+    private FlushPolicy(int rowInterval, long byteInterval) {
+        this.rowInterval = rowInterval;
+        this.byteInterval = byteInterval;
+    }
+
+    /**
+     * Default used by {@link ExcelService}: flush every 1000 rows.
+     */
+    public static FlushPolicy defaults() {
+        return everyRows(1000);
+    }
+
+    public static FlushPolicy everyRows(int rows) {
+        if (rows <= 0) {
+            throw new IllegalArgumentException("rows must be positive: " + rows);
+        }
+        return new FlushPolicy(rows, 0);
+    }
+
+    /**
+     * Flushes once roughly {@code bytes} of sheet XML have been buffered.
+     */
+    public static FlushPolicy everyBytes(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("bytes must be positive: " + bytes);
+        }
+        return new FlushPolicy(0, bytes);
+    }
+
+    public int getRowInterval() {
+        return rowInterval;
+    }
+
+    public long getByteInterval() {
+        return byteInterval;
+    }
+
+    /**
+     * Starts tracking rows written to {@code sheet}, beginning at {@code firstDataRow}.
+     * {@code columnStyles} are applied to each block of rows right before it is flushed.
+     */
+    public Flusher start(Worksheet sheet, ColumnStyles columnStyles, int firstDataRow) {
+        return new Flusher(sheet, columnStyles, firstDataRow);
+    }
+
+    /**
+     * Per-sheet counter; call {@link #endRow(int)} after each data row and
+     * {@link #finish()} once the sheet is complete.
+     */
+    public final class Flusher {
+
+        private final Worksheet sheet;
+        private final ColumnStyles columnStyles;
+        private int firstPendingRow;
+        private int nextRow;
+        private long pendingBytes;
+
+        private Flusher(Worksheet sheet, ColumnStyles columnStyles, int firstDataRow) {
+            this.sheet = sheet;
+            this.columnStyles = columnStyles;
+            this.firstPendingRow = firstDataRow;
+            this.nextRow = firstDataRow;
+        }
+
+        public void endRow(int cells) throws IOException {
+            nextRow++;
+            pendingBytes += (long) cells * ESTIMATED_BYTES_PER_CELL;
+            if ((rowInterval > 0 && nextRow - firstPendingRow >= rowInterval)
+                    || (byteInterval > 0 && pendingBytes >= byteInterval)) {
+                stylePending();
+                sheet.flush();
+                pendingBytes = 0;
+            }
+        }
+
+        /**
+         * Styles and writes the remaining rows and closes the worksheet so its buffers can be released.
+         */
+        public void finish() throws IOException {
+            stylePending();
+            sheet.finish();
+        }
+
+        private void stylePending() {
+            columnStyles.apply(sheet, firstPendingRow, nextRow - 1);
+            firstPendingRow = nextRow;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.pool.PoolStats;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variant of {@link JiraCommenter}.
+ *
+ * Requests are multiplexed over a small number of I/O reactor threads, so any number of
+ * comments can be in flight without holding a caller thread per request; the connection
+ * pool bounds how many actually hit Jira at once. Futures complete on a reactor thread, so
+ * dependent stages should not block (use the {@code ...Async} variants for heavy work).
+ * Instances are thread-safe and meant to be long-lived; close them on shutdown.
+ */
+public class JiraAsyncCommenter implements Closeable {
+
+    private static final int DEFAULT_IO_THREADS = 2;
+
+    private final String baseUrl;
+    private final String authorizationHeader;
+    private final PoolingNHttpClientConnectionManager connectionManager;
+    private final CloseableHttpAsyncClient client;
+    private volatile JiraMetrics metrics;
+
+    public JiraAsyncCommenter(String baseUrl, String username, String apiToken) throws IOException {
+        this(baseUrl, username, apiToken, JiraCommenter.DEFAULT_MAX_CONNECTIONS, DEFAULT_IO_THREADS);
+    }
+
+    public JiraAsyncCommenter(String baseUrl, String username, String apiToken,
+                              int maxConnections, int ioThreads) throws IOException {
+        this.baseUrl = baseUrl;
+        this.authorizationHeader = JiraCommenter.basicAuth(username, apiToken);
+
+        DefaultConnectingIOReactor ioReactor = new DefaultConnectingIOReactor(IOReactorConfig.custom()
+                .setIoThreadCount(ioThreads)
+                .setConnectTimeout(JiraCommenter.CONNECT_TIMEOUT_MS)
+                .setSoTimeout(JiraCommenter.SOCKET_TIMEOUT_MS)
+                .build());
+        this.connectionManager = new PoolingNHttpClientConnectionManager(ioReactor);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+        this.client = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(JiraCommenter.CONNECT_TIMEOUT_MS)
+                        .setSocketTimeout(JiraCommenter.SOCKET_TIMEOUT_MS)
+                        .setConnectionRequestTimeout(JiraCommenter.POOL_TIMEOUT_MS)
+                        .build())
+                .disableCookieManagement()
+                .build();
+        client.start();
+    }
+
+    /**
+     * Posts {@code comment} to {@code issueKey} without blocking.
+     *
+     * The future completes with the parsed result for any HTTP response (check
+     * {@link CommentResult#isSuccess()}), or exceptionally when no response was received.
+     * Cancelling the future aborts the request.
+     */
+    public CompletableFuture<CommentResult> addComment(String issueKey, String comment) {
+        CompletableFuture<CommentResult> result = new CompletableFuture<>();
+        HttpPost httpPost;
+        try {
+            httpPost = JiraCommenter.commentPost(JiraCommenter.commentUrl(baseUrl, issueKey), authorizationHeader, comment, null);
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        JiraMetrics m = metrics;
+        long start = (m == null) ? 0 : m.requestStarted();
+        client.execute(httpPost, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                try {
+                    result.complete(JiraCommenter.toResult(issueKey, response));
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+        result.whenComplete((r, e) -> {
+            if (m != null) {
+                m.requestFinished(start, (r == null) ? CommentResult.NO_RESPONSE : r.getStatusCode());
+            }
+            if (result.isCancelled()) {
+                httpPost.abort();
+            }
+        });
+        return result;
+    }
+
+    public void setMetrics(JiraMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+        connectionManager.shutdown();
+    }
+}
@@ -0,0 +1,182 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Posts many comments concurrently through a shared {@link JiraCommenter}.
+ *
+ * At most {@code parallelism} requests run at once, further limited by a
+ * {@link JiraRateLimiter} that backs off on HTTP 429 and honours {@code Retry-After}.
+ * Throttled requests and requests that never reached Jira are retried with jittered
+ * exponential backoff. Creating a comment is not idempotent, so a request that may have
+ * reached Jira (read timeout, 502-504) is only retried if it carries an idempotency key and
+ * {@link JiraCommenter#findCommentId} shows the comment is not there.
+ * Every request gets a {@link CommentResult}; one failing comment never aborts the batch.
+ */
+public class JiraBulkCommenter implements Closeable {
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final long BASE_BACKOFF_MS = 250;
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    private final JiraCommenter commenter;
+    private final JiraRateLimiter rateLimiter;
+    private final ExecutorService executor;
+    private final int maxAttempts;
+    private volatile JiraMetrics metrics;
+
+    public JiraBulkCommenter(JiraCommenter commenter, int parallelism) {
+        this(commenter, parallelism, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    public JiraBulkCommenter(JiraCommenter commenter, int parallelism, int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+        }
+        this.commenter = commenter;
+        this.rateLimiter = new JiraRateLimiter(parallelism);
+        this.maxAttempts = maxAttempts;
+        this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jira-comment-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Posts every request and waits for all of them.
+     *
+     * @return one result per request, in request order
+     */
+    public List<CommentResult> addComments(List<CommentRequest> requests) throws InterruptedException {
+        List<Future<CommentResult>> futures = new ArrayList<>(requests.size());
+        for (CommentRequest request : requests) {
+            futures.add(executor.submit(() -> post(request)));
+        }
+
+        List<CommentResult> results = new ArrayList<>(requests.size());
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(CommentResult.failed(requests.get(i).getIssueKey(), e.getCause(), 0));
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<CommentResult> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    public void setMetrics(JiraMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public JiraRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Posts one comment, retrying while the outcome is retryable and attempts remain.
+     */
+    CommentResult post(CommentRequest request) {
+        CommentResult result = null;
+        boolean lookUp = false;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            if (attempt > 1) {
+                try {
+                    Thread.sleep(backoffMillis(attempt, result));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return CommentResult.failed(request.getIssueKey(), e, attempt - 1);
+                }
+                JiraMetrics m = metrics;
+                if (m != null) {
+                    m.retried();
+                }
+            }
+            if (lookUp) {
+                // The previous attempt may have created the comment
+                try {
+                    String commentId = commenter.findCommentId(request.getIssueKey(), request.getIdempotencyKey());
+                    if (commentId != null) {
+                        return CommentResult.existing(request.getIssueKey(), commentId, attempt - 1);
+                    }
+                    lookUp = false;
+                } catch (IOException | RuntimeException e) {
+                    // Still unknown; try the lookup again on the next attempt
+                    continue;
+                }
+            }
+            result = attemptOnce(request).withAttempts(attempt);
+            if (result.isRetryable()) {
+                continue;
+            }
+            if (result.isOutcomeUnknown() && request.getIdempotencyKey() != null) {
+                lookUp = true;
+                continue;
+            }
+            return result;
+        }
+        return result;
+    }
+
+    private CommentResult attemptOnce(CommentRequest request) {
+        long waited;
+        try {
+            waited = rateLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CommentResult.failed(request.getIssueKey(), e, 0);
+        }
+        JiraMetrics m = metrics;
+        if (m != null && waited > 0) {
+            m.throttled(waited);
+        }
+        CommentResult result = null;
+        try {
+            result = commenter.addComment(request.getIssueKey(), request.getComment(), request.getIdempotencyKey());
+            return result;
+        } catch (IOException | RuntimeException e) {
+            result = CommentResult.failed(request.getIssueKey(), e, 0);
+            return result;
+        } finally {
+            rateLimiter.release(result);
+        }
+    }
+
+    /**
+     * Full-jitter exponential backoff. When the server sent Retry-After the rate limiter already
+     * holds every caller back for that long, so only a small jitter is added on top.
+     */
+    static long backoffMillis(int attempt, CommentResult previous) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (previous != null && previous.getRetryAfterMillis() >= 0) {
+            return random.nextLong(BASE_BACKOFF_MS + 1);
+        }
+        long ceiling = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempt - 2, 16));
+        return random.nextLong(ceiling + 1);
+    }
+}
@@ -0,0 +1,202 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Merges comments for the same issue that arrive close together into a single Jira comment.
+ *
+ * The first comment for an issue opens a window of {@code windowMillis}; comments for that
+ * issue arriving within the window are appended to the same body, separated by a blank line.
+ * The merged comment is posted when the window closes, or earlier once it holds
+ * {@code maxComments} comments or adding another would exceed {@code maxChars}. A comment is
+ * therefore delayed by at most the window plus the time to post it.
+ *
+ * Every caller gets the result of the merged comment its text ended up in.
+ */
+public class JiraCommentCoalescer implements Closeable {
+
+    static final String SEPARATOR = "\n\n";
+
+    private final JiraCommenter commenter;
+    private final long windowMillis;
+    private final int maxComments;
+    private final int maxChars;
+    private final Map<String, Batch> open = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final ExecutorService sender;
+    /**
+     * Held shared while comments are buffered or batches are handed to {@code sender}, and
+     * exclusively by {@link #close()}, so no batch is opened or sent behind its back.
+     */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    /** Guarded by {@code closeLock}. */
+    private boolean closed;
+
+    public JiraCommentCoalescer(JiraCommenter commenter, long windowMillis, int maxComments, int maxChars,
+                                int parallelism) {
+        if (windowMillis < 0 || maxComments < 1 || maxChars < 1) {
+            throw new IllegalArgumentException("Invalid coalescing window: " + windowMillis + " ms, "
+                    + maxComments + " comments, " + maxChars + " chars");
+        }
+        this.commenter = commenter;
+        this.windowMillis = windowMillis;
+        this.maxComments = maxComments;
+        this.maxChars = maxChars;
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemon("jira-coalesce-timer", null));
+        this.sender = Executors.newFixedThreadPool(parallelism, daemon("jira-coalesce-", new AtomicInteger()));
+    }
+
+    /**
+     * Queues {@code comment} for {@code issueKey}.
+     *
+     * @return completes with the result of the merged comment, or exceptionally if it could not be
+     *         posted or the coalescer is closed ({@link RejectedExecutionException})
+     */
+    public CompletableFuture<CommentResult> addComment(String issueKey, String comment) {
+        CompletableFuture<CommentResult> future = new CompletableFuture<>();
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                future.completeExceptionally(new RejectedExecutionException("Coalescer is closed"));
+                return future;
+            }
+            List<Batch> ready = new ArrayList<>(2);
+            open.compute(issueKey, (key, batch) -> {
+                if (batch != null && !batch.fits(comment, maxChars)) {
+                    ready.add(batch);
+                    batch = null;
+                }
+                if (batch == null) {
+                    batch = new Batch(key);
+                    Batch scheduled = batch;
+                    batch.timeout = timer.schedule(() -> expire(key, scheduled), windowMillis, TimeUnit.MILLISECONDS);
+                }
+                batch.add(comment, future);
+                if (batch.futures.size() >= maxComments) {
+                    ready.add(batch);
+                    return null;
+                }
+                return batch;
+            });
+            for (Batch batch : ready) {
+                send(batch);
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return future;
+    }
+
+    /**
+     * Posts everything still buffered and waits for it, then stops the worker threads.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+            for (String issueKey : new ArrayList<>(open.keySet())) {
+                Batch batch = open.remove(issueKey);
+                if (batch != null) {
+                    send(batch);
+                }
+            }
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        timer.shutdownNow();
+        sender.shutdown();
+        try {
+            sender.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void expire(String issueKey, Batch batch) {
+        closeLock.readLock().lock();
+        try {
+            // No-op if the batch was already sent because it filled up or by close()
+            if (open.remove(issueKey, batch)) {
+                send(batch);
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private void send(Batch batch) {
+        if (batch.timeout != null) {
+            batch.timeout.cancel(false);
+        }
+        String body = batch.body.toString();
+        try {
+            sender.execute(() -> {
+                try {
+                    CommentResult result = commenter.addComment(batch.issueKey, body);
+                    for (CompletableFuture<CommentResult> future : batch.futures) {
+                        future.complete(result);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    batch.fail(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            batch.fail(e);
+        }
+    }
+
+    private static ThreadFactory daemon(String name, AtomicInteger counter) {
+        return r -> {
+            Thread thread = new Thread(r, (counter == null) ? name : name + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Comments buffered for one issue. Only touched inside {@code open.compute} until sent.
+     */
+    private static final class Batch {
+        final String issueKey;
+        final StringBuilder body = new StringBuilder();
+        final List<CompletableFuture<CommentResult>> futures = new ArrayList<>();
+        ScheduledFuture<?> timeout;
+
+        Batch(String issueKey) {
+            this.issueKey = issueKey;
+        }
+
+        boolean fits(String comment, int maxChars) {
+            return body.length() + SEPARATOR.length() + comment.length() <= maxChars;
+        }
+
+        void add(String comment, CompletableFuture<CommentResult> future) {
+            if (body.length() > 0) {
+                body.append(SEPARATOR);
+            }
+            body.append(comment);
+            futures.add(future);
+        }
+
+        void fail(Throwable error) {
+            for (CompletableFuture<CommentResult> future : futures) {
+                future.completeExceptionally(error);
+            }
+        }
+    }
+}
@@ -1,118 +1,263 @@
-
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.Closeable;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Base64;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts comments to Jira issues.
+ *
+ * One instance is meant to live for the whole application: it keeps a bounded pool of
+ * keep-alive connections (so consecutive comments skip the TCP/TLS handshake), a precomputed
+ * Basic auth header and a shared JSON writer. Instances are thread-safe; close them on shutdown.
+ */
+public class JiraCommenter implements Closeable {
 
-public class JiraService {
+    private static final Logger log = LoggerFactory.getLogger(JiraCommenter.class);
 
     private static final String JIRA_BASE_URL = "https://your-jira-instance.atlassian.net"; // Change to your Jira URL
     private static final String JIRA_USERNAME = "your-email@example.com"; // Change to your Jira username
     private static final String JIRA_API_TOKEN = "your-api-token"; // Change to your Jira API token
     private static final String ISSUE_KEY = "PROJ-123"; // Change to your issue key
 
-    public static void main(String[] args) {
-        try {
-            addCommentToJiraIssue(ISSUE_KEY, "This is a test comment from Java.");
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
+    static final int DEFAULT_MAX_CONNECTIONS = 20;
+    static final int CONNECT_TIMEOUT_MS = 5_000;
+    static final int SOCKET_TIMEOUT_MS = 30_000;
+    static final int POOL_TIMEOUT_MS = 10_000;
+    private static final long IDLE_EVICTION_SECONDS = 30;
 
-    public static void addCommentToJiraIssue(String issueKey, String comment) throws Exception {
-        String url = JIRA_BASE_URL + "/rest/api/3/issue/" + issueKey + "/comment";
+    /** Comment property carrying the idempotency key of comments posted through the outbox. */
+    static final String IDEMPOTENCY_PROPERTY = "outbox.idempotency-key";
 
-        CloseableHttpClient client = HttpClients.createDefault();
-        HttpPost httpPost = new HttpPost(url);
+    // ObjectMapper/ObjectWriter are thread-safe once configured
+    static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final ObjectWriter BODY_WRITER = OBJECT_MAPPER.writer();
 
-        // Authentication
-        String auth = JIRA_USERNAME + ":" + JIRA_API_TOKEN;
-        String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
-        httpPost.setHeader("Authorization", "Basic " + encodedAuth);
-        httpPost.setHeader("Content-Type", "application/json");
+    private final String baseUrl;
+    private final String authorizationHeader;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+    private volatile JiraMetrics metrics;
 
-        // Create JSON payload
-        Map<String, Object> body = new HashMap<>();
-        body.put("body", comment);
+    public JiraCommenter(String baseUrl, String username, String apiToken) {
+        this(baseUrl, username, apiToken, DEFAULT_MAX_CONNECTIONS);
+    }
 
-        ObjectMapper objectMapper = new ObjectMapper();
-        String jsonPayload = objectMapper.writeValueAsString(body);
+    public JiraCommenter(String baseUrl, String username, String apiToken, int maxConnections) {
+        this.baseUrl = baseUrl;
+        this.authorizationHeader = basicAuth(username, apiToken);
 
-        httpPost.setEntity(new StringEntity(jsonPayload, StandardCharsets.UTF_8));
+        // All requests go to a single host, so the per-route limit is the pool size
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
 
-        // Execute request
-        CloseableHttpResponse response = client.execute(httpPost);
-        String responseBody = EntityUtils.toString(response.getEntity());
+        this.client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .evictIdleConnections(IDLE_EVICTION_SECONDS, TimeUnit.SECONDS)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(CONNECT_TIMEOUT_MS)
+                        .setSocketTimeout(SOCKET_TIMEOUT_MS)
+                        .setConnectionRequestTimeout(POOL_TIMEOUT_MS)
+                        .build())
+                .disableCookieManagement()
+                .build();
+    }
 
-        System.out.println("Response Code: " + response.getStatusLine().getStatusCode());
-        System.out.println("Response Body: " + responseBody);
+    public static void main(String[] args) {
+        try {
+            CommentResult result = addCommentToJiraIssue(ISSUE_KEY, "This is a test comment from Java.");
+            log.info("Jira answered HTTP {}: {}", result.getStatusCode(), result.getResponseBody());
+        } catch (Exception e) {
+            log.error("Could not post the comment to {}", ISSUE_KEY, e);
+        }
+    }
 
-        client.close();
+    /**
+     * Posts a comment with the default, process-wide client.
+     */
+    public static CommentResult addCommentToJiraIssue(String issueKey, String comment) throws Exception {
+        CommentResult result = DefaultClient.INSTANCE.addComment(issueKey, comment);
+        log.debug("Comment on {} answered with HTTP {}", issueKey, result.getStatusCode());
+        return result;
     }
-}
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
-import java.util.HashMap;
-import java.util.Map;
 
-public class JiraCommenter {
+    /**
+     * Posts {@code comment} to {@code issueKey} on a pooled connection.
+     * The response is always fully consumed and closed so the connection returns to the pool.
+     */
+    public CommentResult addComment(String issueKey, String comment) throws IOException {
+        return addComment(issueKey, comment, null);
+    }
 
-    private static final String JIRA_BASE_URL = "https://your-jira-instance.atlassian.net"; // Change to your Jira URL
-    private static final String JIRA_USERNAME = "your-email@example.com"; // Change to your Jira username
-    private static final String JIRA_API_TOKEN = "your-api-token"; // Change to your Jira API token
-    private static final String ISSUE_KEY = "PROJ-123"; // Change to your issue key
+    /**
+     * Same as {@link #addComment(String, String)}, additionally storing {@code idempotencyKey}
+     * (if not {@code null}) as a comment property so a redelivered comment can be recognised
+     * with {@link #findCommentId(String, String)}.
+     */
+    public CommentResult addComment(String issueKey, String comment, String idempotencyKey) throws IOException {
+        HttpPost httpPost = commentPost(commentUrl(baseUrl, issueKey), authorizationHeader, comment, idempotencyKey);
+        JiraMetrics m = metrics;
+        long start = (m == null) ? 0 : m.requestStarted();
+        int statusCode = CommentResult.NO_RESPONSE;
+        try (CloseableHttpResponse response = client.execute(httpPost)) {
+            CommentResult result = toResult(issueKey, response);
+            statusCode = result.getStatusCode();
+            return result;
+        } finally {
+            if (m != null) {
+                m.requestFinished(start, statusCode);
+            }
+        }
+    }
 
-    public static void main(String[] args) {
-        try {
-            addCommentToJiraIssue(ISSUE_KEY, "This is a test comment from Java.");
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Looks for a comment on {@code issueKey} that was posted with {@code idempotencyKey}.
+     *
+     * @return the comment id, or {@code null} if there is none
+     */
+    public String findCommentId(String issueKey, String idempotencyKey) throws IOException {
+        HttpGet httpGet = new HttpGet(commentUrl(baseUrl, issueKey) + "?orderBy=-created&maxResults=100&expand=properties");
+        httpGet.setHeader(HttpHeaders.AUTHORIZATION, authorizationHeader);
+        httpGet.setHeader(HttpHeaders.ACCEPT, "application/json");
+        try (CloseableHttpResponse response = client.execute(httpGet)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            String responseBody = (response.getEntity() == null)
+                    ? ""
+                    : EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+            if (statusCode < 200 || statusCode >= 300) {
+                throw new IOException("Listing comments of " + issueKey + " failed with HTTP " + statusCode);
+            }
+            for (JsonNode comment : OBJECT_MAPPER.readTree(responseBody).path("comments")) {
+                for (JsonNode property : comment.path("properties")) {
+                    if (IDEMPOTENCY_PROPERTY.equals(property.path("key").asText())
+                            && idempotencyKey.equals(property.path("value").path("id").asText())) {
+                        return comment.path("id").asText();
+                    }
+                }
+            }
+            return null;
         }
     }
 
-    public static void addCommentToJiraIssue(String issueKey, String comment) throws Exception {
-        String url = JIRA_BASE_URL + "/rest/api/3/issue/" + issueKey + "/comment";
+    public void setMetrics(JiraMetrics metrics) {
+        this.metrics = metrics;
+    }
 
-        CloseableHttpClient client = HttpClients.createDefault();
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+        connectionManager.close();
+    }
+
+    static String commentUrl(String baseUrl, String issueKey) {
+        return baseUrl + "/rest/api/3/issue/" + issueKey + "/comment";
+    }
+
+    static HttpPost commentPost(String url, String authorizationHeader, String comment,
+                                String idempotencyKey) throws IOException {
         HttpPost httpPost = new HttpPost(url);
+        httpPost.setHeader(HttpHeaders.AUTHORIZATION, authorizationHeader);
+        httpPost.setHeader(HttpHeaders.ACCEPT, "application/json");
+        httpPost.setEntity(new ByteArrayEntity(payload(comment, idempotencyKey), ContentType.APPLICATION_JSON));
+        return httpPost;
+    }
 
-        // Authentication
-        String auth = JIRA_USERNAME + ":" + JIRA_API_TOKEN;
-        String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
-        httpPost.setHeader("Authorization", "Basic " + encodedAuth);
-        httpPost.setHeader("Content-Type", "application/json");
+    /**
+     * Reads status, body and {@code Retry-After} of a comment response; consumes the entity.
+     */
+    static CommentResult toResult(String issueKey, HttpResponse response) throws IOException {
+        int statusCode = response.getStatusLine().getStatusCode();
+        String responseBody = (response.getEntity() == null)
+                ? ""
+                : EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+        Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        return new CommentResult(issueKey, statusCode, parseCommentId(statusCode, responseBody), responseBody,
+                parseRetryAfter(retryAfter == null ? null : retryAfter.getValue()), 1, null);
+    }
 
-        // Create JSON payload
-        Map<String, Object> body = new HashMap<>();
+    static byte[] payload(String comment, String idempotencyKey) throws IOException {
+        if (idempotencyKey == null) {
+            return BODY_WRITER.writeValueAsBytes(Collections.singletonMap("body", comment));
+        }
+        Map<String, Object> property = new LinkedHashMap<>();
+        property.put("key", IDEMPOTENCY_PROPERTY);
+        property.put("value", Collections.singletonMap("id", idempotencyKey));
+        Map<String, Object> body = new LinkedHashMap<>();
         body.put("body", comment);
+        body.put("properties", Collections.singletonList(property));
+        return BODY_WRITER.writeValueAsBytes(body);
+    }
 
-        ObjectMapper objectMapper = new ObjectMapper();
-        String jsonPayload = objectMapper.writeValueAsString(body);
-
-        httpPost.setEntity(new StringEntity(jsonPayload, StandardCharsets.UTF_8));
+    static String parseCommentId(int statusCode, String responseBody) {
+        if (statusCode < 200 || statusCode >= 300 || responseBody == null || responseBody.isEmpty()) {
+            return null;
+        }
+        try {
+            JsonNode id = OBJECT_MAPPER.readTree(responseBody).get("id");
+            return (id == null) ? null : id.asText();
+        } catch (IOException e) {
+            return null;
+        }
+    }
 
-        // Execute request
-        CloseableHttpResponse response = client.execute(httpPost);
-        String responseBody = EntityUtils.toString(response.getEntity());
+    /**
+     * Parses a {@code Retry-After} value (delta seconds or an HTTP date) into millis, -1 if absent/invalid.
+     */
+    static long parseRetryAfter(String value) {
+        if (value == null || value.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException notSeconds) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+            } catch (DateTimeParseException notDate) {
+                return -1;
+            }
+        }
+    }
 
-        System.out.println("Response Code: " + response.getStatusLine().getStatusCode());
-        System.out.println("Response Body: " + responseBody);
+    static String basicAuth(String username, String apiToken) {
+        String auth = username + ":" + apiToken;
+        return "Basic " + Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
+    }
 
-        client.close();
+    // Lazily created so that merely loading the class does not open a pool
+    private static final class DefaultClient {
+        static final JiraCommenter INSTANCE = new JiraCommenter(JIRA_BASE_URL, JIRA_USERNAME, JIRA_API_TOKEN);
     }
 }
-
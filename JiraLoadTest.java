@@ -0,0 +1,210 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.pool.PoolStats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of the Jira comment path against an embedded stub Jira; never touches a real instance.
+ *
+ * The stub answers {@code POST /rest/api/3/issue/{key}/comment} after a configurable latency
+ * and rejects a configurable share of requests with 429 + {@code Retry-After}. Comments are
+ * sent through {@link JiraBulkCommenter} and the run reports throughput, latency percentiles
+ * by status class, retries, rate limiter waits and peak connection pool usage.
+ *
+ * Options ({@code --name=value}, defaults in brackets): {@code requests} [5000],
+ * {@code parallelism} [16], {@code connections} [20], {@code latency-ms} [50],
+ * {@code jitter-ms} [20], {@code throttle-rate} [0.0], {@code retry-after-seconds} [1, 0 omits
+ * the header], {@code server-threads} [64], {@code issues} [100].
+ *
+ * Example: {@code java JiraLoadTest --requests=20000 --parallelism=32 --throttle-rate=0.02}
+ */
+public class JiraLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int requests = intOption(options, "requests", 5000);
+        int parallelism = intOption(options, "parallelism", 16);
+        int connections = intOption(options, "connections", 20);
+        int issues = intOption(options, "issues", 100);
+
+        StubJira stub = new StubJira(
+                intOption(options, "latency-ms", 50),
+                intOption(options, "jitter-ms", 20),
+                Double.parseDouble(options.getOrDefault("throttle-rate", "0.0")),
+                intOption(options, "retry-after-seconds", 1),
+                intOption(options, "server-threads", 64));
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        JiraMetrics metrics = new JiraMetrics(registry);
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        try (JiraCommenter commenter = new JiraCommenter(stub.baseUrl(), "load-test", "token", connections);
+             JiraBulkCommenter bulk = new JiraBulkCommenter(commenter, parallelism)) {
+            commenter.setMetrics(metrics);
+            bulk.setMetrics(metrics);
+            metrics.bindPool(commenter);
+
+            AtomicInteger peakLeased = new AtomicInteger();
+            AtomicInteger peakPending = new AtomicInteger();
+            sampler.scheduleAtFixedRate(() -> {
+                PoolStats stats = commenter.getPoolStats();
+                peakLeased.accumulateAndGet(stats.getLeased(), Math::max);
+                peakPending.accumulateAndGet(stats.getPending(), Math::max);
+            }, 0, 50, TimeUnit.MILLISECONDS);
+
+            List<CommentRequest> batch = new ArrayList<>(requests);
+            for (int i = 0; i < requests; i++) {
+                batch.add(new CommentRequest("LOAD-" + (i % issues), "Load test comment " + i));
+            }
+
+            long start = System.nanoTime();
+            List<CommentResult> results = bulk.addComments(batch);
+            long elapsedNanos = System.nanoTime() - start;
+
+            int succeeded = 0;
+            for (CommentResult result : results) {
+                if (result.isSuccess()) {
+                    succeeded++;
+                }
+            }
+            double seconds = elapsedNanos / 1e9;
+            System.out.printf("requests=%d succeeded=%d failed=%d elapsed=%.2fs throughput=%.1f/s%n",
+                    requests, succeeded, requests - succeeded, seconds, succeeded / seconds);
+            System.out.printf("server: received=%d throttled=%d%n", stub.received.get(), stub.throttled.get());
+            for (Timer timer : registry.find("jira.comment.duration").timers()) {
+                StringBuilder line = new StringBuilder();
+                line.append(String.format("latency status=%s count=%d mean=%.1fms max=%.1fms",
+                        timer.getId().getTag("status"), timer.count(),
+                        timer.mean(TimeUnit.MILLISECONDS), timer.max(TimeUnit.MILLISECONDS)));
+                for (ValueAtPercentile p : timer.takeSnapshot().percentileValues()) {
+                    line.append(String.format(" p%.0f=%.1fms", p.percentile() * 100, p.value(TimeUnit.MILLISECONDS)));
+                }
+                System.out.println(line);
+            }
+            Timer throttleWait = registry.find("jira.comment.throttle.wait").timer();
+            System.out.printf("retries=%.0f throttle_wait_total=%.0fms limiter_limit=%d/%d%n",
+                    registry.find("jira.comment.retries").counter().count(),
+                    throttleWait.totalTime(TimeUnit.MILLISECONDS),
+                    bulk.getRateLimiter().getLimit(), parallelism);
+            System.out.printf("pool: max=%d peak_leased=%d peak_pending=%d%n",
+                    connections, peakLeased.get(), peakPending.get());
+        } finally {
+            sampler.shutdownNow();
+            stub.stop();
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    private static int intOption(Map<String, String> options, String name, int defaultValue) {
+        String value = options.get(name);
+        return (value == null) ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Minimal stand-in for the Jira comment endpoints on a loopback port.
+     */
+    static final class StubJira {
+
+        private static final byte[] COMMENT_LIST = "{\"comments\":[]}".getBytes(StandardCharsets.UTF_8);
+
+        final AtomicLong received = new AtomicLong();
+        final AtomicLong throttled = new AtomicLong();
+
+        private final int latencyMs;
+        private final int jitterMs;
+        private final double throttleRate;
+        private final int retryAfterSeconds;
+        private final HttpServer server;
+        private final ExecutorService executor;
+        private final AtomicLong nextId = new AtomicLong(10_000);
+
+        StubJira(int latencyMs, int jitterMs, double throttleRate, int retryAfterSeconds, int threads) throws IOException {
+            this.latencyMs = latencyMs;
+            this.jitterMs = jitterMs;
+            this.throttleRate = throttleRate;
+            this.retryAfterSeconds = retryAfterSeconds;
+            this.executor = Executors.newFixedThreadPool(threads);
+            this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+            server.createContext("/rest/api/3/issue/", this::handle);
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        String baseUrl() {
+            return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+        }
+
+        void stop() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] discard = new byte[8192];
+                while (in.read(discard) >= 0) {
+                    // drain so the connection can be reused
+                }
+            }
+            if ("GET".equals(exchange.getRequestMethod())) {
+                respond(exchange, 200, COMMENT_LIST);
+                return;
+            }
+            received.incrementAndGet();
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            try {
+                Thread.sleep(latencyMs + (jitterMs > 0 ? random.nextInt(jitterMs + 1) : 0));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (random.nextDouble() < throttleRate) {
+                throttled.incrementAndGet();
+                if (retryAfterSeconds > 0) {
+                    exchange.getResponseHeaders().set("Retry-After", Integer.toString(retryAfterSeconds));
+                }
+                respond(exchange, 429, new byte[0]);
+                return;
+            }
+            respond(exchange, 201, ("{\"id\":\"" + nextId.incrementAndGet() + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.pool.PoolStats;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Micrometer instrumentation of the Jira call path.
+ *
+ * <ul>
+ *   <li>{@code jira.comment.duration}: latency of each comment request, tagged with the
+ *       status class ({@code 2xx}, {@code 4xx}, {@code 429}, {@code 5xx}, {@code none})</li>
+ *   <li>{@code jira.comment.inflight}: requests currently waiting for Jira</li>
+ *   <li>{@code jira.comment.retries}: retried attempts in {@link JiraBulkCommenter}</li>
+ *   <li>{@code jira.comment.throttle.wait}: time blocked by the {@link JiraRateLimiter}</li>
+ *   <li>{@code jira.pool.leased|available|pending|max}: connection pool state, tagged with the client</li>
+ *   <li>{@code jira.outbox.pending}: undelivered comments in a {@link JiraOutbox}</li>
+ * </ul>
+ */
+public class JiraMetrics {
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> requestTimers = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter retries;
+    private final Timer throttleWait;
+
+    public JiraMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.retries = Counter.builder("jira.comment.retries")
+                .description("Comment attempts that were retries of an earlier attempt")
+                .register(registry);
+        this.throttleWait = Timer.builder("jira.comment.throttle.wait")
+                .description("Time spent waiting for the Jira rate limiter")
+                .publishPercentileHistogram()
+                .register(registry);
+        Gauge.builder("jira.comment.inflight", inFlight, AtomicInteger::get)
+                .description("Comment requests awaiting a response")
+                .register(registry);
+    }
+
+    /**
+     * Marks the start of a request; returns the start time to pass to {@link #requestFinished}.
+     */
+    long requestStarted() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * @param statusCode the HTTP status, or {@link CommentResult#NO_RESPONSE}
+     */
+    void requestFinished(long startNanos, int statusCode) {
+        inFlight.decrementAndGet();
+        requestTimer(statusClass(statusCode)).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void retried() {
+        retries.increment();
+    }
+
+    void throttled(long waitNanos) {
+        throttleWait.record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void bindPool(JiraCommenter commenter) {
+        bindPool("sync", commenter, JiraCommenter::getPoolStats);
+    }
+
+    public void bindPool(JiraAsyncCommenter commenter) {
+        bindPool("async", commenter, JiraAsyncCommenter::getPoolStats);
+    }
+
+    void bindOutbox(JiraOutbox outbox) {
+        Gauge.builder("jira.outbox.pending", outbox, JiraOutbox::getPendingCount)
+                .description("Comments waiting in the outbox")
+                .register(registry);
+    }
+
+    /**
+     * Micrometer holds gauge state weakly, so the state is the commenter itself: the gauges
+     * live as long as the client does.
+     */
+    private <C> void bindPool(String client, C commenter, Function<C, PoolStats> stats) {
+        Gauge.builder("jira.pool.leased", commenter, c -> stats.apply(c).getLeased()).tag("client", client).register(registry);
+        Gauge.builder("jira.pool.available", commenter, c -> stats.apply(c).getAvailable()).tag("client", client).register(registry);
+        Gauge.builder("jira.pool.pending", commenter, c -> stats.apply(c).getPending()).tag("client", client).register(registry);
+        Gauge.builder("jira.pool.max", commenter, c -> stats.apply(c).getMax()).tag("client", client).register(registry);
+    }
+
+    private Timer requestTimer(String statusClass) {
+        return requestTimers.computeIfAbsent(statusClass, s -> Timer.builder("jira.comment.duration")
+                .tag("status", s)
+                .description("Latency of Jira comment requests")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    static String statusClass(int statusCode) {
+        if (statusCode == 429) {
+            return "429";
+        }
+        if (statusCode < 100 || statusCode > 599) {
+            return "none";
+        }
+        return (statusCode / 100) + "xx";
+    }
+}
@@ -0,0 +1,542 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * File-backed outbox for Jira comments.
+ *
+ * {@link #enqueue(String, String)} appends the comment to a local journal and returns once
+ * it is on disk; concurrent callers share a single fsync (group commit). A background thread
+ * drains the outbox to Jira in batches through a {@link JiraBulkCommenter} and journals each
+ * delivery, so nothing is lost while Jira is slow or down and pending comments are replayed
+ * after a restart.
+ *
+ * Delivery is at-least-once. Every comment carries an idempotency key stored as a comment
+ * property; comments that may already have reached Jira (recovered from a previous run, or
+ * sent without a definite answer, see {@link CommentResult#isOutcomeUnknown()}) are first
+ * looked up by that key and only posted again if Jira does not have them yet. Comments Jira
+ * rejects for their own content or issue (400, 404, 413, 422) are dropped with a warning
+ * rather than retried forever; everything else, including 401/403 from an expired token or a
+ * changed permission, stays queued and the dispatcher backs off until Jira accepts it.
+ *
+ * Journal record layout: {@code int length, int crc32, byte type, payload}. A torn or corrupt
+ * tail (crash mid-write) ends the replay and is cut off. The journal is rewritten with only
+ * the pending comments at startup and once it is past its compaction threshold and at least
+ * half of it is delivered records, so a long backlog does not make every batch rewrite it.
+ * It is written through {@link RandomAccessFile} rather than a {@code FileChannel} so that
+ * interrupting a caller cannot close the journal underneath everybody else.
+ */
+public class JiraOutbox implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(JiraOutbox.class);
+
+    private static final byte ENQUEUED = 1;
+    private static final byte DELIVERED = 2;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+
+    private static final int DEFAULT_PARALLELISM = 4;
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final long DEFAULT_COMPACT_BYTES = 16L * 1024 * 1024;
+    private static final long MIN_RETRY_DELAY_MS = 1_000;
+    private static final long MAX_RETRY_DELAY_MS = 60_000;
+
+    private final Path journalPath;
+    private final JiraCommenter commenter;
+    private final JiraBulkCommenter bulkCommenter;
+    private final int batchSize;
+    private final long compactBytes;
+
+    /** Guards {@code journal}, {@code writePosition}, {@code liveBytes} and the contents of {@code pending}. */
+    private final Object writeLock = new Object();
+    /** Serialises fsyncs; taken after {@code writeLock} when both are needed. */
+    private final Object syncLock = new Object();
+    private RandomAccessFile journal;
+    private volatile long writePosition;
+    private long syncedPosition;
+    /** Journal bytes of the pending comments' records; the rest of the journal is garbage. */
+    private long liveBytes;
+
+    /** Undelivered comments in enqueue order, by idempotency key. */
+    private final LinkedHashMap<String, Entry> pending = new LinkedHashMap<>();
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    public JiraOutbox(Path journalPath, JiraCommenter commenter) throws IOException {
+        this(journalPath, commenter, DEFAULT_PARALLELISM, DEFAULT_BATCH_SIZE, DEFAULT_COMPACT_BYTES);
+    }
+
+    public JiraOutbox(Path journalPath, JiraCommenter commenter, int parallelism, int batchSize,
+                      long compactBytes) throws IOException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1: " + batchSize);
+        }
+        this.journalPath = journalPath;
+        this.commenter = commenter;
+        this.bulkCommenter = new JiraBulkCommenter(commenter, parallelism);
+        this.batchSize = batchSize;
+        this.compactBytes = compactBytes;
+
+        if (journalPath.getParent() != null) {
+            Files.createDirectories(journalPath.getParent());
+        }
+        replay();
+        synchronized (writeLock) {
+            compact();
+        }
+        if (!pending.isEmpty()) {
+            log.info("Jira outbox {} recovered {} undelivered comments", journalPath, pending.size());
+        }
+
+        this.dispatcher = new Thread(this::dispatchLoop, "jira-outbox-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Durably queues a comment for delivery.
+     *
+     * @return the idempotency key of the queued comment
+     */
+    public String enqueue(String issueKey, String comment) throws IOException {
+        Entry entry = new Entry(UUID.randomUUID().toString(), issueKey, comment, false);
+        byte[] record = encodeEnqueued(entry);
+        entry.recordBytes = record.length;
+        long end;
+        synchronized (writeLock) {
+            ensureOpen();
+            journal.write(record);
+            end = writePosition += record.length;
+            liveBytes += record.length;
+            pending.put(entry.id, entry);
+            writeLock.notifyAll();
+        }
+        sync(end);
+        return entry.id;
+    }
+
+    /**
+     * Reports retries and throttling of the dispatcher and the outbox depth to {@code metrics}.
+     */
+    public void setMetrics(JiraMetrics metrics) {
+        bulkCommenter.setMetrics(metrics);
+        metrics.bindOutbox(this);
+    }
+
+    public int getPendingCount() {
+        synchronized (writeLock) {
+            return pending.size();
+        }
+    }
+
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Waits until every queued comment has been delivered or dropped.
+     *
+     * @return {@code false} if the timeout elapsed first
+     */
+    public boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (writeLock) {
+            while (!pending.isEmpty()) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                writeLock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Stops the dispatcher; undelivered comments stay in the journal for the next start.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        synchronized (writeLock) {
+            writeLock.notifyAll();
+        }
+        dispatcher.interrupt();
+        try {
+            dispatcher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        bulkCommenter.close();
+        synchronized (writeLock) {
+            synchronized (syncLock) {
+                if (journal != null) {
+                    journal.getFD().sync();
+                    journal.close();
+                    journal = null;
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- dispatch
+
+    private void dispatchLoop() {
+        int consecutiveFailures = 0;
+        while (!closed) {
+            try {
+                List<Entry> batch = nextBatch();
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                if (deliver(batch)) {
+                    consecutiveFailures = 0;
+                } else {
+                    consecutiveFailures++;
+                    long delay = Math.min(MAX_RETRY_DELAY_MS, MIN_RETRY_DELAY_MS << Math.min(consecutiveFailures - 1, 16));
+                    log.warn("Jira outbox could not deliver all comments, {} pending; retrying in {} ms",
+                            getPendingCount(), delay);
+                    Thread.sleep(delay);
+                }
+            } catch (InterruptedException e) {
+                if (closed) {
+                    return;
+                }
+            } catch (IOException | RuntimeException e) {
+                log.error("Jira outbox dispatcher failed", e);
+                try {
+                    Thread.sleep(MIN_RETRY_DELAY_MS);
+                } catch (InterruptedException interrupted) {
+                    if (closed) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private List<Entry> nextBatch() throws InterruptedException {
+        synchronized (writeLock) {
+            while (pending.isEmpty() && !closed) {
+                writeLock.wait();
+            }
+            List<Entry> batch = new ArrayList<>(Math.min(batchSize, pending.size()));
+            Iterator<Entry> it = pending.values().iterator();
+            while (it.hasNext() && batch.size() < batchSize) {
+                batch.add(it.next());
+            }
+            return batch;
+        }
+    }
+
+    /**
+     * Delivers one batch and journals the outcome.
+     *
+     * @return {@code false} if some comments have to be retried later
+     */
+    private boolean deliver(List<Entry> batch) throws IOException, InterruptedException {
+        List<String> done = new ArrayList<>(batch.size());
+        List<Entry> toSend = new ArrayList<>(batch.size());
+        boolean complete = true;
+
+        for (Entry entry : batch) {
+            if (!entry.uncertain) {
+                toSend.add(entry);
+                continue;
+            }
+            // May have reached Jira before the previous run died or the last attempt failed
+            try {
+                if (commenter.findCommentId(entry.issueKey, entry.id) != null) {
+                    delivered.incrementAndGet();
+                    done.add(entry.id);
+                } else {
+                    entry.uncertain = false;
+                    toSend.add(entry);
+                }
+            } catch (IOException e) {
+                log.warn("Jira outbox could not check comment {} on {}: {}", entry.id, entry.issueKey, e.toString());
+                complete = false;
+            }
+        }
+
+        List<CommentRequest> requests = new ArrayList<>(toSend.size());
+        for (Entry entry : toSend) {
+            requests.add(new CommentRequest(entry.issueKey, entry.comment, entry.id));
+        }
+        List<CommentResult> results = bulkCommenter.addComments(requests);
+        for (int i = 0; i < results.size(); i++) {
+            CommentResult result = results.get(i);
+            Entry entry = toSend.get(i);
+            if (result.isSuccess()) {
+                delivered.incrementAndGet();
+                done.add(entry.id);
+            } else if (isPermanentFailure(result)) {
+                dropped.incrementAndGet();
+                done.add(entry.id);
+                log.warn("Jira rejected comment {} on {} with HTTP {}, dropping it: {}",
+                        entry.id, entry.issueKey, result.getStatusCode(), result.getResponseBody());
+            } else {
+                if (result.isOutcomeUnknown()) {
+                    entry.uncertain = true;
+                } else if (isAuthFailure(result)) {
+                    log.warn("Jira refused comment {} on {} with HTTP {}, keeping it queued: {}",
+                            entry.id, entry.issueKey, result.getStatusCode(), result.getResponseBody());
+                }
+                complete = false;
+            }
+        }
+
+        markDelivered(done);
+        return complete;
+    }
+
+    /**
+     * Whether Jira rejected the comment itself or its issue, so sending it again cannot help.
+     */
+    private static boolean isPermanentFailure(CommentResult result) {
+        switch (result.getStatusCode()) {
+            case 400: // malformed body
+            case 404: // issue deleted or moved
+            case 413: // comment too large
+            case 422:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isAuthFailure(CommentResult result) {
+        int status = result.getStatusCode();
+        return status == 401 || status == 403;
+    }
+
+    /**
+     * Journals the given comments as handled. Not fsynced: losing these records in a crash
+     * only means the comments are looked up again, and found, on replay.
+     */
+    private void markDelivered(List<String> ids) throws IOException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        synchronized (writeLock) {
+            ensureOpen();
+            ByteBuffer buffer = ByteBuffer.allocate(ids.size() * (RECORD_HEADER_BYTES + 64));
+            for (String id : ids) {
+                byte[] record = encodeDelivered(id);
+                if (buffer.remaining() < record.length) {
+                    ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2 + record.length);
+                    buffer.flip();
+                    buffer = larger.put(buffer);
+                }
+                buffer.put(record);
+                Entry entry = pending.remove(id);
+                if (entry != null) {
+                    liveBytes -= entry.recordBytes;
+                }
+            }
+            journal.write(buffer.array(), 0, buffer.position());
+            writePosition += buffer.position();
+            if (writePosition > Math.max(compactBytes, 2 * liveBytes)) {
+                compact();
+            }
+            writeLock.notifyAll();
+        }
+    }
+
+    // ---------------------------------------------------------------- journal
+
+    /**
+     * Forces the journal to disk up to at least {@code end}. Callers arriving while another
+     * thread syncs find their bytes already covered and return without a second fsync.
+     */
+    private void sync(long end) throws IOException {
+        synchronized (syncLock) {
+            if (syncedPosition >= end || journal == null) {
+                return;
+            }
+            long target = writePosition;
+            journal.getFD().sync();
+            syncedPosition = target;
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the pending comments. Caller holds {@code writeLock}.
+     */
+    private void compact() throws IOException {
+        synchronized (syncLock) {
+            Path tmp = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+            long size = 0;
+            try (RandomAccessFile out = new RandomAccessFile(tmp.toFile(), "rw")) {
+                out.setLength(0);
+                for (Entry entry : pending.values()) {
+                    byte[] record = encodeEnqueued(entry);
+                    out.write(record);
+                    entry.recordBytes = record.length;
+                    size += record.length;
+                }
+                out.getFD().sync();
+            }
+            if (journal != null) {
+                journal.close();
+            }
+            Files.move(tmp, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journal = new RandomAccessFile(journalPath.toFile(), "rw");
+            journal.seek(size);
+            writePosition = size;
+            syncedPosition = size;
+            liveBytes = size;
+        }
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(journalPath)) {
+            return;
+        }
+        long valid = 0;
+        try (InputStream file = Files.newInputStream(journalPath);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file, 64 * 1024))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_BYTES) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                int crc;
+                try {
+                    crc = in.readInt();
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (crc != crc32(body)) {
+                    break;
+                }
+                apply(ByteBuffer.wrap(body));
+                valid += RECORD_HEADER_BYTES + length;
+            }
+        }
+        long size = Files.size(journalPath);
+        if (valid < size) {
+            log.warn("Jira outbox {} has {} unreadable trailing bytes, discarding them", journalPath, size - valid);
+        }
+    }
+
+    private void apply(ByteBuffer body) {
+        byte type = body.get();
+        String id = getString(body);
+        if (type == ENQUEUED) {
+            String issueKey = getString(body);
+            String comment = getString(body);
+            pending.put(id, new Entry(id, issueKey, comment, true));
+        } else if (type == DELIVERED) {
+            pending.remove(id);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (journal == null) {
+            throw new IOException("Jira outbox " + journalPath + " is closed");
+        }
+    }
+
+    private static byte[] encodeEnqueued(Entry entry) {
+        byte[] id = entry.id.getBytes(StandardCharsets.UTF_8);
+        byte[] issueKey = entry.issueKey.getBytes(StandardCharsets.UTF_8);
+        byte[] comment = entry.comment.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(1 + 12 + id.length + issueKey.length + comment.length);
+        body.put(ENQUEUED);
+        putString(body, id);
+        putString(body, issueKey);
+        putString(body, comment);
+        return record(body.array());
+    }
+
+    private static byte[] encodeDelivered(String id) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(1 + 4 + idBytes.length);
+        body.put(DELIVERED);
+        putString(body, idBytes);
+        return record(body.array());
+    }
+
+    private static byte[] record(byte[] body) {
+        if (body.length > MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Comment too large for the outbox: " + body.length + " bytes");
+        }
+        return ByteBuffer.allocate(RECORD_HEADER_BYTES + body.length)
+                .putInt(body.length)
+                .putInt(crc32(body))
+                .put(body)
+                .array();
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] utf8) {
+        buffer.putInt(utf8.length).put(utf8);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static int crc32(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+
+    private static final class Entry {
+        final String id;
+        final String issueKey;
+        final String comment;
+        /**
+         * May already have reached Jira: replayed from a previous run, or last sent without a
+         * definite answer. Only touched by the dispatcher after construction.
+         */
+        boolean uncertain;
+        /** Size of this comment's record in the journal. Guarded by {@code writeLock}. */
+        int recordBytes;
+
+        Entry(String id, String issueKey, String comment, boolean uncertain) {
+            this.id = id;
+            this.issueKey = issueKey;
+            this.comment = comment;
+            this.uncertain = uncertain;
+        }
+    }
+}
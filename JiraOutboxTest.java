@@ -0,0 +1,343 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scenario test of {@link JiraOutbox} against an embedded stub Jira; never touches a real instance.
+ *
+ * Covers recovery after a restart (including a torn journal tail), the idempotency-key lookup
+ * that keeps comments with an unknown outcome from being posted twice, comments kept through
+ * an authentication failure, and journal compaction.
+ * Prints one line per scenario and exits with status 1 on the first failed check.
+ *
+ * Example: {@code java JiraOutboxTest}
+ */
+public class JiraOutboxTest {
+
+    private static final long TIMEOUT_SECONDS = 60;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("jira-outbox-test");
+        StubJira stub = new StubJira();
+        try {
+            restartRecovery(stub, directory.resolve("restart.journal"));
+            unknownOutcomeLookup(stub, directory.resolve("lookup.journal"));
+            authFailureKeepsComments(stub, directory.resolve("auth.journal"));
+            compaction(stub, directory.resolve("compaction.journal"));
+        } catch (AssertionError e) {
+            System.out.println("FAILED: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            stub.stop();
+        }
+        System.out.println("all scenarios passed");
+    }
+
+    /**
+     * Comments queued while Jira is down survive a restart, a torn trailing record is
+     * discarded, and every comment is posted exactly once after the restart.
+     */
+    private static void restartRecovery(StubJira stub, Path journal) throws Exception {
+        stub.reset(StubJira.Mode.FAIL);
+        List<String> keys = new ArrayList<>();
+        try (JiraCommenter commenter = new JiraCommenter(stub.baseUrl(), "test", "token");
+             JiraOutbox outbox = new JiraOutbox(journal, commenter, 4, 10, 1 << 20)) {
+            for (int i = 0; i < 20; i++) {
+                keys.add(outbox.enqueue("REC-" + (i % 3), "Restart comment " + i));
+            }
+            check(!outbox.awaitDrained(1, TimeUnit.SECONDS), "outbox drained while Jira was down");
+        }
+        // A crash in the middle of an append leaves a partial record behind
+        Files.write(journal, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        stub.reset(StubJira.Mode.OK);
+        try (JiraCommenter commenter = new JiraCommenter(stub.baseUrl(), "test", "token");
+             JiraOutbox outbox = new JiraOutbox(journal, commenter, 4, 10, 1 << 20)) {
+            check(outbox.getPendingCount() == keys.size(),
+                    "recovered " + outbox.getPendingCount() + " of " + keys.size() + " comments");
+            check(outbox.awaitDrained(TIMEOUT_SECONDS, TimeUnit.SECONDS), "outbox did not drain after restart");
+            check(outbox.getDeliveredCount() == keys.size(), "delivered " + outbox.getDeliveredCount());
+        }
+        checkExactlyOnce(stub, keys);
+        System.out.println("restart recovery: ok");
+    }
+
+    /**
+     * Jira creates each comment but answers 504, so the outcome is unknown to the outbox.
+     * The comments must be found by their idempotency key instead of being posted again,
+     * both in the same run and after a restart.
+     */
+    private static void unknownOutcomeLookup(StubJira stub, Path journal) throws Exception {
+        stub.reset(StubJira.Mode.CREATE_THEN_GATEWAY_TIMEOUT);
+        List<String> keys = new ArrayList<>();
+        try (JiraCommenter commenter = new JiraCommenter(stub.baseUrl(), "test", "token");
+             JiraOutbox outbox = new JiraOutbox(journal, commenter, 4, 10, 1 << 20)) {
+            for (int i = 0; i < 10; i++) {
+                keys.add(outbox.enqueue("DUP-" + (i % 2), "Lookup comment " + i));
+            }
+            check(outbox.awaitDrained(TIMEOUT_SECONDS, TimeUnit.SECONDS), "outbox did not drain");
+        }
+        checkExactlyOnce(stub, keys);
+
+        // Same again, but the outbox is stopped before it can look the comments up
+        stub.reset(StubJira.Mode.CREATE_THEN_GATEWAY_TIMEOUT);
+        stub.failLookups = true;
+        keys.clear();
+        try (JiraCommenter commenter = new JiraCommenter(stub.baseUrl(), "test", "token");
+             JiraOutbox outbox = new JiraOutbox(journal, commenter, 4, 10, 1 << 20)) {
+            for (int i = 0; i < 10; i++) {
+                keys.add(outbox.enqueue("DUP-" + (i % 2), "Restarted lookup comment " + i));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            while (stub.posts.get() < keys.size() && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            check(stub.posts.get() >= keys.size(), "comments were not sent before the restart");
+        }
+        stub.failLookups = false;
+        stub.mode = StubJira.Mode.OK;
+        try (JiraCommenter commenter = new JiraCommenter(stub.baseUrl(), "test", "token");
+             JiraOutbox outbox = new JiraOutbox(journal, commenter, 4, 10, 1 << 20)) {
+            check(outbox.awaitDrained(TIMEOUT_SECONDS, TimeUnit.SECONDS), "outbox did not drain after restart");
+        }
+        checkExactlyOnce(stub, keys);
+        System.out.println("unknown outcome lookup: ok");
+    }
+
+    /**
+     * A 401 (expired API token) must not drop anything: the comments stay pending and are
+     * delivered once Jira accepts the credentials again.
+     */
+    private static void authFailureKeepsComments(StubJira stub, Path journal) throws Exception {
+        stub.reset(StubJira.Mode.UNAUTHORIZED);
+        List<String> keys = new ArrayList<>();
+        try (JiraCommenter commenter = new JiraCommenter(stub.baseUrl(), "test", "token");
+             JiraOutbox outbox = new JiraOutbox(journal, commenter, 4, 10, 1 << 20)) {
+            for (int i = 0; i < 5; i++) {
+                keys.add(outbox.enqueue("AUTH-" + (i % 2), "Auth comment " + i));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            while (stub.posts.get() < keys.size() && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            check(stub.posts.get() >= keys.size(), "comments were not sent");
+            check(outbox.getDroppedCount() == 0, "dropped " + outbox.getDroppedCount() + " comments on 401");
+            check(outbox.getPendingCount() == keys.size(), "only " + outbox.getPendingCount() + " comments pending");
+
+            stub.mode = StubJira.Mode.OK;
+            check(outbox.awaitDrained(TIMEOUT_SECONDS, TimeUnit.SECONDS), "outbox did not drain after 401");
+            check(outbox.getDroppedCount() == 0, "dropped " + outbox.getDroppedCount() + " comments");
+        }
+        checkExactlyOnce(stub, keys);
+        System.out.println("auth failure keeps comments: ok");
+    }
+
+    /**
+     * Delivered records are compacted away, but a pending backlog larger than the threshold
+     * does not make every delivered batch rewrite the journal.
+     */
+    private static void compaction(StubJira stub, Path journal) throws Exception {
+        long compactBytes = 4096;
+        stub.reset(StubJira.Mode.OK);
+        try (JiraCommenter commenter = new JiraCommenter(stub.baseUrl(), "test", "token");
+             JiraOutbox outbox = new JiraOutbox(journal, commenter, 4, 10, compactBytes)) {
+            for (int i = 0; i < 300; i++) {
+                outbox.enqueue("CMP-" + (i % 5), "Compaction comment " + i);
+            }
+            check(outbox.awaitDrained(TIMEOUT_SECONDS, TimeUnit.SECONDS), "outbox did not drain");
+            long size = Files.size(journal);
+            check(size <= compactBytes, "journal not compacted, " + size + " bytes");
+        }
+
+        // Backlog of ~20 KB: after one batch is delivered, most of the journal is still live
+        stub.reset(StubJira.Mode.FAIL);
+        try (JiraCommenter commenter = new JiraCommenter(stub.baseUrl(), "test", "token");
+             JiraOutbox outbox = new JiraOutbox(journal, commenter, 4, 10, compactBytes)) {
+            for (int i = 0; i < 200; i++) {
+                outbox.enqueue("CMP-" + (i % 5), "Backlog comment " + i);
+            }
+            long backlog = Files.size(journal);
+            stub.mode = StubJira.Mode.OK;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            while (outbox.getPendingCount() > 190 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            stub.mode = StubJira.Mode.FAIL;
+            int pending = outbox.getPendingCount();
+            long size = Files.size(journal);
+            check(pending < 200, "no batch delivered");
+            if (pending > 100) {
+                check(size > backlog, "journal rewritten with " + pending + " of 200 comments still pending");
+            }
+        }
+        System.out.println("compaction: ok");
+    }
+
+    private static void checkExactlyOnce(StubJira stub, List<String> keys) {
+        Map<String, Integer> counts = stub.countsByIdempotencyKey();
+        for (String key : keys) {
+            int count = counts.getOrDefault(key, 0);
+            check(count == 1, "comment " + key + " exists " + count + " times");
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Stand-in for the Jira comment endpoints that stores comments with their properties.
+     */
+    static final class StubJira {
+
+        enum Mode {
+            /** Create the comment and answer 201. */
+            OK,
+            /** Answer 500 without creating anything. */
+            FAIL,
+            /** Create the comment but answer 504, as a gateway that gave up waiting would. */
+            CREATE_THEN_GATEWAY_TIMEOUT,
+            /** Answer 401 without creating anything, as for an expired API token. */
+            UNAUTHORIZED
+        }
+
+        volatile Mode mode = Mode.OK;
+        volatile boolean failLookups;
+        final AtomicLong posts = new AtomicLong();
+
+        /** Issue key => comments as {id, idempotency key}. */
+        private final Map<String, List<String[]>> comments = new HashMap<>();
+        private final AtomicLong nextId = new AtomicLong(10_000);
+        private final HttpServer server;
+        private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        StubJira() throws IOException {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 256);
+            server.createContext("/rest/api/3/issue/", this::handle);
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        String baseUrl() {
+            return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+        }
+
+        void reset(Mode mode) {
+            this.mode = mode;
+            this.failLookups = false;
+            posts.set(0);
+            synchronized (comments) {
+                comments.clear();
+            }
+        }
+
+        void stop() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+
+        Map<String, Integer> countsByIdempotencyKey() {
+            Map<String, Integer> counts = new HashMap<>();
+            synchronized (comments) {
+                for (List<String[]> issueComments : comments.values()) {
+                    for (String[] comment : issueComments) {
+                        if (comment[1] != null) {
+                            counts.merge(comment[1], 1, Integer::sum);
+                        }
+                    }
+                }
+            }
+            return counts;
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            byte[] body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = in.readAllBytes();
+            }
+            String path = exchange.getRequestURI().getPath();
+            String issueKey = path.substring("/rest/api/3/issue/".length(), path.lastIndexOf("/comment"));
+
+            if ("GET".equals(exchange.getRequestMethod())) {
+                if (failLookups) {
+                    respond(exchange, 500, new byte[0]);
+                    return;
+                }
+                StringBuilder json = new StringBuilder("{\"comments\":[");
+                synchronized (comments) {
+                    List<String[]> issueComments = comments.getOrDefault(issueKey, new ArrayList<>());
+                    for (int i = 0; i < issueComments.size(); i++) {
+                        String[] comment = issueComments.get(i);
+                        json.append(i == 0 ? "" : ",").append("{\"id\":\"").append(comment[0]).append("\",\"properties\":[");
+                        if (comment[1] != null) {
+                            json.append("{\"key\":\"").append(JiraCommenter.IDEMPOTENCY_PROPERTY)
+                                    .append("\",\"value\":{\"id\":\"").append(comment[1]).append("\"}}");
+                        }
+                        json.append("]}");
+                    }
+                }
+                respond(exchange, 200, json.append("]}").toString().getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            posts.incrementAndGet();
+            Mode current = mode;
+            if (current == Mode.FAIL) {
+                respond(exchange, 500, new byte[0]);
+                return;
+            }
+            if (current == Mode.UNAUTHORIZED) {
+                respond(exchange, 401, new byte[0]);
+                return;
+            }
+            String id = Long.toString(nextId.incrementAndGet());
+            String idempotencyKey = null;
+            for (JsonNode property : JiraCommenter.OBJECT_MAPPER.readTree(body).path("properties")) {
+                if (JiraCommenter.IDEMPOTENCY_PROPERTY.equals(property.path("key").asText())) {
+                    idempotencyKey = property.path("value").path("id").asText();
+                }
+            }
+            synchronized (comments) {
+                comments.computeIfAbsent(issueKey, k -> new ArrayList<>()).add(new String[]{id, idempotencyKey});
+            }
+            if (current == Mode.CREATE_THEN_GATEWAY_TIMEOUT) {
+                respond(exchange, 504, new byte[0]);
+                return;
+            }
+            respond(exchange, 201, ("{\"id\":\"" + id + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+            if (body.length == 0 && status >= 400) {
+                // The JDK server drops the connection after an empty error response, which the
+                // client would only notice on its next request
+                body = "{}".getBytes(StandardCharsets.UTF_8);
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive concurrency limit for calls to Jira.
+ *
+ * Starts at {@code maxConcurrency} in-flight requests. A congestion signal (429, 503, 504 or a
+ * timeout, see {@link CommentResult#isCongested()}) halves the limit and, if the server sent
+ * {@code Retry-After}, pauses every caller until that delay has passed; each run of successful
+ * (2xx) responses as long as the current limit raises it by one again (AIMD). Other failures
+ * leave the limit alone. Thread-safe.
+ */
+public class JiraRateLimiter {
+
+    private final int maxConcurrency;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private int limit;
+    private int inFlight;
+    private int successesSinceIncrease;
+    private long pausedUntilNanos = System.nanoTime();
+    private long throttleWaitNanos;
+
+    public JiraRateLimiter(int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1: " + maxConcurrency);
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.limit = maxConcurrency;
+    }
+
+    /**
+     * Blocks until a request may be sent: no Retry-After pause is active and fewer than
+     * {@link #getLimit()} requests are in flight.
+     *
+     * @return nanoseconds spent blocked, {@code 0} if the permit was available at once
+     */
+    public long acquire() throws InterruptedException {
+        long waitStart = System.nanoTime();
+        lock.lockInterruptibly();
+        try {
+            boolean blocked = false;
+            while (true) {
+                long pause = pausedUntilNanos - System.nanoTime();
+                if (pause > 0) {
+                    blocked = true;
+                    changed.awaitNanos(pause);
+                } else if (inFlight < limit) {
+                    inFlight++;
+                    if (!blocked) {
+                        return 0;
+                    }
+                    long waited = System.nanoTime() - waitStart;
+                    throttleWaitNanos += waited;
+                    return waited;
+                } else {
+                    blocked = true;
+                    changed.await();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the permit taken by {@link #acquire()} and adapts the limit to the outcome.
+     *
+     * @param result outcome of the request, {@code null} if it did not complete
+     */
+    public void release(CommentResult result) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (result != null && result.isCongested()) {
+                long retryAfterMillis = result.getRetryAfterMillis();
+                limit = Math.max(1, limit / 2);
+                successesSinceIncrease = 0;
+                if (retryAfterMillis > 0) {
+                    long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis);
+                    if (until - pausedUntilNanos > 0) {
+                        pausedUntilNanos = until;
+                    }
+                }
+            } else if (result != null && result.isSuccess() && limit < maxConcurrency && ++successesSinceIncrease >= limit) {
+                limit++;
+                successesSinceIncrease = 0;
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Total time callers spent blocked in {@link #acquire()}, in nanoseconds. */
+    public long getThrottleWaitNanos() {
+        lock.lock();
+        try {
+            return throttleWaitNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
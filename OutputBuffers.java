@@ -0,0 +1,159 @@
+package com.example.excel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of large write buffers placed between a workbook and the response stream.
+ *
+ * fastexcel writes the deflated workbook in small chunks; without a buffer each one becomes a
+ * write on the servlet stream, and a fresh multi-megabyte buffer per export would churn the
+ * heap. Streams from {@link #wrap} borrow a buffer for their lifetime and hand it back on
+ * close; at most {@code maxPooled} idle buffers are kept, further ones are left to the GC.
+ *
+ * Streams from {@link #wrap} pass each {@code flush()} through, so the blocks of rows a
+ * {@link FlushPolicy} flushes reach the client right away. Output nobody reads before it is
+ * complete, such as a temporary file, is better wrapped with {@link #wrapIgnoringFlush}, which
+ * only drains the buffer when it is full and on close.
+ */
+public class OutputBuffers {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    public static final int DEFAULT_MAX_POOLED = 16;
+
+    private final int bufferSize;
+    private final ArrayBlockingQueue<byte[]> idle;
+
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    public OutputBuffers() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+    }
+
+    public OutputBuffers(int bufferSize, int maxPooled) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+        }
+        if (maxPooled <= 0) {
+            throw new IllegalArgumentException("maxPooled must be positive: " + maxPooled);
+        }
+        this.bufferSize = bufferSize;
+        this.idle = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * Buffers writes to {@code out} in a pooled buffer. Closing the returned stream drains
+     * the buffer, flushes {@code out} and returns the buffer, but leaves {@code out} open.
+     */
+    public OutputStream wrap(OutputStream out) {
+        return new PooledStream(out, borrow(), true);
+    }
+
+    /**
+     * Like {@link #wrap}, but {@code flush()} is ignored: the buffer is only drained when full
+     * and on close.
+     */
+    public OutputStream wrapIgnoringFlush(OutputStream out) {
+        return new PooledStream(out, borrow(), false);
+    }
+
+    private byte[] borrow() {
+        byte[] buffer = idle.poll();
+        if (buffer == null) {
+            buffer = new byte[bufferSize];
+            allocated.incrementAndGet();
+        } else {
+            reused.incrementAndGet();
+        }
+        return buffer;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public long getAllocatedCount() {
+        return allocated.get();
+    }
+
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    private final class PooledStream extends OutputStream {
+
+        private final OutputStream out;
+        private final boolean passFlushes;
+        private byte[] buffer;
+        private int count;
+
+        PooledStream(OutputStream out, byte[] buffer, boolean passFlushes) {
+            this.out = out;
+            this.buffer = buffer;
+            this.passFlushes = passFlushes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer().length) {
+                drain();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            byte[] buf = buffer();
+            if (len >= buf.length) {
+                // Larger than the buffer: copying it first would only add work
+                drain();
+                out.write(b, off, len);
+                return;
+            }
+            if (len > buf.length - count) {
+                drain();
+            }
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (passFlushes && count > 0) {
+                drain();
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (buffer == null) {
+                return;
+            }
+            try {
+                drain();
+                out.flush();
+            } finally {
+                idle.offer(buffer);
+                buffer = null;
+            }
+        }
+
+        private byte[] buffer() throws IOException {
+            if (buffer == null) {
+                throw new IOException("Stream closed");
+            }
+            return buffer;
+        }
+
+        private void drain() throws IOException {
+            if (count > 0) {
+                out.write(buffer, 0, count);
+                count = 0;
+            }
+        }
+    }
+}
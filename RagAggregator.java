@@ -0,0 +1,321 @@
+package com.example.excel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Derives the PKP_details and PKS_details rows (red/amber/green/NA counts per dimension)
+ * from the car-level results in the same single pass that writes the Car_results sheet.
+ *
+ * Each car row is counted under its dimension and under its PKS (given by {@code pksIdOf},
+ * as {@link CarResults} does not carry it) using its {@code car_status}, classified like the
+ * RAG colouring. Counters live in flat {@code int} arrays behind an open-addressing table of
+ * primitive {@code (pks, dimension)} keys, so counting does not box or allocate per row.
+ *
+ * Use through {@link ExportInput#aggregated}; an aggregator serves a single export.
+ * Not thread-safe.
+ */
+public final class RagAggregator {
+
+    /**
+     * Overall status of a set of counts.
+     */
+    @FunctionalInterface
+    public interface StatusRule {
+        String status(int red, int amber, int green, int na);
+    }
+
+    /** Worst colour present: Red, else Amber, else Green, else NA. */
+    public static final StatusRule WORST_STATUS = (red, amber, green, na) ->
+            (red > 0) ? "Red" : (amber > 0) ? "Amber" : (green > 0) ? "Green" : "NA";
+
+    private static final int RED = 0;
+    private static final int AMBER = 1;
+    private static final int GREEN = 2;
+    private static final int NA = 3;
+    private static final int STATUSES = 4;
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int MAX_DIMENSIONS = 1 << 16;
+
+    private final int pkpId;
+    private final PkpPdf pkpPdf;
+    private final ToIntFunction<? super CarResults> pksIdOf;
+    private final IntFunction<String> pksNameOf;
+    private StatusRule statusRule = WORST_STATUS;
+
+    /** Dimensions in first-seen order; the index is part of the counter key. */
+    private String[] dimensions = new String[8];
+    private int dimensionCount;
+
+    /** PKP-level counts, {@code STATUSES} per dimension. */
+    private int[] pkpCounts = new int[8 * STATUSES];
+
+    /** (pks << 16 | dimension) => slot; counts of slot s at {@code pksCounts[s * STATUSES ..]}. */
+    private long[] keys = newKeys(256);
+    private int[] pksCounts = new int[256 * STATUSES];
+    private int size;
+
+    private boolean complete;
+
+    /**
+     * @param pkpId     id written to every PKP_details and PKS_details row
+     * @param pkpPdf    PKP the car rows belong to (name and date of the output rows)
+     * @param pksIdOf   PKS a car row is counted under
+     * @param pksNameOf name of a PKS id for the PKS_details rows
+     */
+    public RagAggregator(int pkpId, PkpPdf pkpPdf, ToIntFunction<? super CarResults> pksIdOf,
+                         IntFunction<String> pksNameOf) {
+        this.pkpId = pkpId;
+        this.pkpPdf = pkpPdf;
+        this.pksIdOf = pksIdOf;
+        this.pksNameOf = pksNameOf;
+    }
+
+    /**
+     * Replaces {@link #WORST_STATUS} as the rule for {@code pkp_status} and {@code rag_status}.
+     */
+    public RagAggregator statusRule(StatusRule statusRule) {
+        this.statusRule = statusRule;
+        return this;
+    }
+
+    /**
+     * Counts one car row.
+     */
+    public void accept(CarResults car) {
+        int dimension = dimensionIndex(car.getDimension());
+        int status = statusIndex(car.getCar_status());
+        pkpCounts[dimension * STATUSES + status]++;
+        // slot() may grow pksCounts, so resolve it before indexing
+        int slot = slot(((long) pksIdOf.applyAsInt(car) << 16) | dimension);
+        pksCounts[slot * STATUSES + status]++;
+    }
+
+    /**
+     * Passes {@code cars} through unchanged, counting every row on the way. The aggregate is
+     * complete once the returned source reports no more rows.
+     */
+    public RowSource<CarResults> tee(RowSource<CarResults> cars) {
+        return new RowSource<CarResults>() {
+            @Override
+            public boolean hasNext() {
+                boolean hasNext = cars.hasNext();
+                if (!hasNext) {
+                    complete = true;
+                }
+                return hasNext;
+            }
+
+            @Override
+            public CarResults next() {
+                CarResults car = cars.next();
+                accept(car);
+                return car;
+            }
+
+            @Override
+            public long sizeHint() {
+                return cars.sizeHint();
+            }
+
+            @Override
+            public void close() {
+                cars.close();
+            }
+        };
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * PKP_details rows, one per dimension. Must not be read before the car rows are consumed.
+     */
+    public RowSource<PkpResults> pkpResults() {
+        return deferred(this::buildPkpResults);
+    }
+
+    /**
+     * PKS_details rows, one per PKS and dimension ordered by PKS id. Must not be read before
+     * the car rows are consumed.
+     */
+    public RowSource<KrfResult> pksResults() {
+        return deferred(this::buildPksResults);
+    }
+
+    private List<PkpResults> buildPkpResults() {
+        List<PkpResults> rows = new ArrayList<>(dimensionCount);
+        for (int d = 0; d < dimensionCount; d++) {
+            int base = d * STATUSES;
+            PkpResults row = new PkpResults();
+            row.setPkp_id(pkpId);
+            row.setPkp_date(pkpPdf.getPkp_date());
+            row.setPkp_name(pkpPdf.getPkp_name());
+            row.setDimension(dimensions[d]);
+            row.setRed(pkpCounts[base + RED]);
+            row.setAmber(pkpCounts[base + AMBER]);
+            row.setGreen(pkpCounts[base + GREEN]);
+            row.setNa(pkpCounts[base + NA]);
+            row.setPkp_status(statusRule.status(pkpCounts[base + RED], pkpCounts[base + AMBER],
+                    pkpCounts[base + GREEN], pkpCounts[base + NA]));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private List<KrfResult> buildPksResults() {
+        long[] used = new long[size];
+        int n = 0;
+        for (long key : keys) {
+            if (key != EMPTY) {
+                used[n++] = key;
+            }
+        }
+        Arrays.sort(used);
+
+        List<KrfResult> rows = new ArrayList<>(size);
+        int lastPksId = 0;
+        String lastPksName = null;
+        for (long key : used) {
+            int pksId = (int) (key >> 16);
+            if (lastPksName == null || pksId != lastPksId) {
+                lastPksId = pksId;
+                lastPksName = pksNameOf.apply(pksId);
+            }
+            int base = slot(key) * STATUSES;
+            KrfResult row = new KrfResult();
+            row.setPkp_id(pkpId);
+            row.setPks_id(pksId);
+            row.setPkp_date(pkpPdf.getPkp_date());
+            row.setPks_name(lastPksName);
+            row.setDimension(dimensions[(int) (key & 0xFFFF)]);
+            row.setRed(pksCounts[base + RED]);
+            row.setAmber(pksCounts[base + AMBER]);
+            row.setGreen(pksCounts[base + GREEN]);
+            row.setNa(pksCounts[base + NA]);
+            row.setRag_status(statusRule.status(pksCounts[base + RED], pksCounts[base + AMBER],
+                    pksCounts[base + GREEN], pksCounts[base + NA]));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private <T> RowSource<T> deferred(Supplier<List<T>> rows) {
+        return new RowSource<T>() {
+            private List<T> list;
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                if (list == null) {
+                    if (!complete) {
+                        throw new IllegalStateException("Car rows must be consumed before the aggregated results");
+                    }
+                    list = rows.get();
+                }
+                return index < list.size();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return list.get(index++);
+            }
+        };
+    }
+
+    private int dimensionIndex(String dimension) {
+        for (int i = 0; i < dimensionCount; i++) {
+            String known = dimensions[i];
+            if (known == dimension || (known != null && known.equals(dimension))) {
+                return i;
+            }
+        }
+        if (dimensionCount == MAX_DIMENSIONS) {
+            throw new IllegalStateException("More than " + MAX_DIMENSIONS + " distinct dimensions");
+        }
+        if (dimensionCount == dimensions.length) {
+            dimensions = Arrays.copyOf(dimensions, dimensionCount * 2);
+            pkpCounts = Arrays.copyOf(pkpCounts, dimensionCount * 2 * STATUSES);
+        }
+        dimensions[dimensionCount] = dimension;
+        return dimensionCount++;
+    }
+
+    private static int statusIndex(String carStatus) {
+        switch (CellStyle.rag(carStatus)) {
+            case RAG_RED:
+                return RED;
+            case RAG_AMBER:
+                return AMBER;
+            case RAG_GREEN:
+                return GREEN;
+            default:
+                return NA;
+        }
+    }
+
+    /**
+     * Slot of {@code key}, inserting it if absent (linear probing, at most half full).
+     */
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (true) {
+            long existing = keys[i];
+            if (existing == key) {
+                return i;
+            }
+            if (existing == EMPTY) {
+                if ((size + 1) * 2 > keys.length) {
+                    grow();
+                    return slot(key);
+                }
+                keys[i] = key;
+                size++;
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldCounts = pksCounts;
+        keys = newKeys(oldKeys.length * 2);
+        pksCounts = new int[keys.length * STATUSES];
+        int mask = keys.length - 1;
+        for (int s = 0; s < oldKeys.length; s++) {
+            long key = oldKeys[s];
+            if (key == EMPTY) {
+                continue;
+            }
+            int i = mix(key) & mask;
+            while (keys[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            System.arraycopy(oldCounts, s * STATUSES, pksCounts, i * STATUSES, STATUSES);
+        }
+    }
+
+    private static long[] newKeys(int capacity) {
+        long[] keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
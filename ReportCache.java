@@ -0,0 +1,256 @@
+package com.example.excel;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local-disk cache of finished {@code .xlsx} reports.
+ *
+ * Entries are keyed by PKP identity (name + date) plus a version made of the comment
+ * timestamp/uuid and a caller supplied data version. Storing a new version of a PKP drops
+ * the older ones, and the least recently used entries are evicted once the cache grows past
+ * {@code maxBytes}. File names encode the key, so entries written before a restart are reused.
+ *
+ * Cached files are served with {@link FileChannel#transferTo}, which lets the JDK (and the
+ * container, where it supports it) copy the bytes without staging them on the heap.
+ */
+public class ReportCache {
+
+    private static final String SUFFIX = ".xlsx";
+
+    private final Path directory;
+    private final long maxBytes;
+
+    /** File name => size, in access order (eldest first). Guarded by {@code this}. */
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ReportCache(Path directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        loadExisting();
+    }
+
+    /**
+     * Opens the cached report for {@code key}, rendering and storing it first on a miss.
+     * The returned channel stays readable even if the entry is evicted meanwhile.
+     */
+    public FileChannel getOrRender(Key key, Renderer renderer) throws IOException {
+        String fileName = key.fileName();
+        Path target = directory.resolve(fileName);
+        synchronized (this) {
+            if (index.get(fileName) != null) {
+                hits.incrementAndGet();
+                return FileChannel.open(target, StandardOpenOption.READ);
+            }
+        }
+        misses.incrementAndGet();
+
+        // Render outside the lock; concurrent misses for the same key simply race to the same file.
+        Path tmp = Files.createTempFile(directory, "render-", ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                renderer.render(out);
+            }
+            synchronized (this) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                FileChannel channel = FileChannel.open(target, StandardOpenOption.READ);
+                removeIdentity(key.identityPrefix(), fileName);
+                Long previous = index.put(fileName, channel.size());
+                totalBytes += channel.size() - (previous == null ? 0 : previous);
+                evictOverflow();
+                return channel;
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Drops every cached version of the given PKP, e.g. after its comment was edited.
+     */
+    public synchronized void invalidate(PkpPdf pkpPdf) throws IOException {
+        removeIdentity(Key.identityPrefix(pkpPdf), null);
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Copies the whole file into {@code out} via {@link FileChannel#transferTo}.
+     */
+    public static void transferTo(FileChannel file, OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long size = file.size();
+        long position = 0;
+        while (position < size) {
+            position += file.transferTo(position, size - position, target);
+        }
+    }
+
+    private void removeIdentity(String identityPrefix, String keep) throws IOException {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (entry.getKey().startsWith(identityPrefix) && !entry.getKey().equals(keep)) {
+                totalBytes -= entry.getValue();
+                Files.deleteIfExists(directory.resolve(entry.getKey()));
+                it.remove();
+            }
+        }
+    }
+
+    private void evictOverflow() throws IOException {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        // Always keep the most recent entry, even if it alone exceeds the budget.
+        while (totalBytes > maxBytes && index.size() > 1) {
+            Map.Entry<String, Long> eldest = it.next();
+            totalBytes -= eldest.getValue();
+            Files.deleteIfExists(directory.resolve(eldest.getKey()));
+            it.remove();
+        }
+    }
+
+    private void loadExisting() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(SUFFIX)) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort((a, b) -> {
+            try {
+                return Files.getLastModifiedTime(a).compareTo(Files.getLastModifiedTime(b));
+            } catch (IOException e) {
+                return 0;
+            }
+        });
+        synchronized (this) {
+            for (Path file : files) {
+                long size = Files.size(file);
+                index.put(file.getFileName().toString(), size);
+                totalBytes += size;
+            }
+            evictOverflow();
+        }
+    }
+
+    /**
+     * Renders a workbook into the given stream.
+     */
+    @FunctionalInterface
+    public interface Renderer {
+        void render(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Cache key: PKP identity plus everything that makes a published report change.
+     */
+    public static final class Key {
+
+        private final String identity;
+        private final String version;
+
+        private Key(String identity, String version) {
+            this.identity = identity;
+            this.version = version;
+        }
+
+        public static Key of(PkpPdf pkpPdf, String dataVersion) {
+            String version = pkpPdf.getPkp_comment_timestamp()
+                    + '\u0000' + pkpPdf.getPkp_comment_uuid()
+                    + '\u0000' + dataVersion;
+            return new Key(identity(pkpPdf), version);
+        }
+
+        String fileName() {
+            return identityPrefix() + sha256(identity + '\u0000' + version).substring(0, 32) + SUFFIX;
+        }
+
+        String identityPrefix() {
+            return prefixOf(identity);
+        }
+
+        static String identityPrefix(PkpPdf pkpPdf) {
+            return prefixOf(identity(pkpPdf));
+        }
+
+        private static String identity(PkpPdf pkpPdf) {
+            String date = (pkpPdf.getPkp_date() == null) ? "" : pkpPdf.getPkp_date().format(DateTimeFormatter.ISO_DATE);
+            return pkpPdf.getPkp_name() + '\u0000' + date;
+        }
+
+        private static String prefixOf(String identity) {
+            return sha256(identity).substring(0, 16) + "-";
+        }
+
+        static String sha256(String value) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+                StringBuilder hex = new StringBuilder(digest.length * 2);
+                for (byte b : digest) {
+                    hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not available", e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return identity.equals(other.identity) && version.equals(other.version);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * identity.hashCode() + version.hashCode();
+        }
+    }
+}
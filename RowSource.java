@@ -0,0 +1,174 @@
+package com.example.excel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+/**
+ * Pull-based source of rows for a single worksheet.
+ *
+ * The sheet writers in {@link ExcelService} consume rows one at a time, so a source that
+ * fetches lazily (a JDBC cursor, a paged repository call, a {@link Stream}) keeps peak heap
+ * proportional to its batch size instead of to the number of rows in the export.
+ *
+ * Sources are single-pass and are closed by the writer once the sheet has been written.
+ */
+public interface RowSource<T> extends Iterator<T>, AutoCloseable {
+
+    /**
+     * Releases the underlying cursor/stream. Does nothing by default.
+     */
+    @Override
+    default void close() {
+    }
+
+    /**
+     * Number of rows this source will yield in total, or {@code -1} if unknown (the default,
+     * e.g. for cursors and streams). Used to estimate the memory an export needs, see
+     * {@link ExportAdmission}, and to create the worksheets of a dataset beyond the row limit
+     * of one worksheet next to each other; rows beyond the hint end up on extra worksheets
+     * after the last sheet.
+     */
+    default long sizeHint() {
+        return -1;
+    }
+
+    /**
+     * Splits the unread rows into consecutive parts of at most {@code rowsPerPart} rows that
+     * can be read independently, e.g. on different threads. Sources that cannot be split
+     * (the default) return themselves as the only part. Call before reading any row.
+     */
+    default List<RowSource<T>> split(int rowsPerPart) {
+        return Collections.singletonList(this);
+    }
+
+    static <T> RowSource<T> empty() {
+        return of(Collections.<T>emptyIterator());
+    }
+
+    /**
+     * Wraps an already materialized list ({@code null} => no rows).
+     */
+    static <T> RowSource<T> of(List<T> list) {
+        if (list == null) {
+            return empty();
+        }
+        Iterator<T> iterator = list.iterator();
+        return new RowSource<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public long sizeHint() {
+                return list.size();
+            }
+
+            @Override
+            public List<RowSource<T>> split(int rowsPerPart) {
+                if (list.size() <= rowsPerPart) {
+                    return Collections.singletonList(this);
+                }
+                List<RowSource<T>> parts = new ArrayList<>();
+                for (int from = 0; from < list.size(); from += rowsPerPart) {
+                    parts.add(of(list.subList(from, Math.min(list.size(), from + rowsPerPart))));
+                }
+                return parts;
+            }
+        };
+    }
+
+    static <T> RowSource<T> of(Iterator<T> iterator) {
+        return new RowSource<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+        };
+    }
+
+    /**
+     * Wraps a (possibly lazy) stream; the stream is closed together with the source.
+     */
+    static <T> RowSource<T> of(Stream<T> stream) {
+        Iterator<T> iterator = stream.iterator();
+        return new RowSource<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+                stream.close();
+            }
+        };
+    }
+
+    /**
+     * Cursor-style source that pulls {@code batchSize} rows at a time from {@code loader}.
+     * Only the current batch is held on the heap; loading stops at the first short batch.
+     */
+    static <T> RowSource<T> batched(int batchSize, BatchLoader<T> loader) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        return new RowSource<T>() {
+            private List<T> batch = Collections.emptyList();
+            private int index;
+            private long offset;
+            private boolean exhausted;
+
+            @Override
+            public boolean hasNext() {
+                if (index < batch.size()) {
+                    return true;
+                }
+                if (exhausted) {
+                    return false;
+                }
+                List<T> next = loader.load(offset, batchSize);
+                batch = (next == null) ? Collections.<T>emptyList() : next;
+                index = 0;
+                offset += batch.size();
+                exhausted = batch.size() < batchSize;
+                return !batch.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch.get(index++);
+            }
+        };
+    }
+
+    /**
+     * Loads one page of rows, e.g. {@code LIMIT limit OFFSET offset}.
+     */
+    @FunctionalInterface
+    interface BatchLoader<T> {
+        List<T> load(long offset, int limit);
+    }
+}
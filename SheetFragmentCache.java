@@ -0,0 +1,268 @@
+package com.example.excel;
+
+import org.dhatim.fastexcel.writer.Workbook;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local-disk cache of rendered worksheets, see {@link ExcelService#generateExcelIncremental}.
+ *
+ * An entry is the compressed XML of one worksheet exactly as it is stored in the
+ * {@code .xlsx}, so a cached sheet is copied into a new workbook without re-rendering or
+ * re-compressing it. Entries are keyed by PKP identity, sheet and a caller supplied data
+ * version of that sheet's rows. Storing a new version of a sheet drops the older ones, and the
+ * least recently used entries are evicted once the cache grows past {@code maxBytes}.
+ */
+public class SheetFragmentCache {
+
+    private static final String SUFFIX = ".sheet";
+
+    /** Bumped whenever the rendered sheet XML changes shape, which orphans older entries. */
+    private static final String FORMAT = "1";
+
+    private static final int MAGIC = 0x58534631; // "XSF1"
+    private static final int HEADER_BYTES = 32;
+
+    private final Path directory;
+    private final long maxBytes;
+
+    /** File name => size, in access order (eldest first). Guarded by {@code this}. */
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SheetFragmentCache(Path directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        loadExisting();
+    }
+
+    /**
+     * Opens the cached sheet for {@code key}, or returns {@code null} on a miss. The fragment
+     * stays readable even if the entry is evicted meanwhile.
+     */
+    Fragment open(Key key) throws IOException {
+        String fileName = key.fileName();
+        FileChannel channel;
+        synchronized (this) {
+            if (index.get(fileName) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            channel = FileChannel.open(directory.resolve(fileName), StandardOpenOption.READ);
+        }
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read the whole header
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt(0) != MAGIC) {
+                throw new IOException("Corrupt sheet fragment " + fileName);
+            }
+            hits.incrementAndGet();
+            ZipParts.Part part = new ZipParts.Part("", header.getInt(4), header.getInt(8), 0,
+                    header.getInt(12), header.getLong(16), header.getLong(24), HEADER_BYTES);
+            return new Fragment(part, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Stores the sheet {@code part} of the workbook in {@code source} under {@code key}.
+     */
+    void store(Key key, ZipParts.Part part, FileChannel source) throws IOException {
+        String fileName = key.fileName();
+        Path tmp = Files.createTempFile(directory, "fragment-", ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(part.flags).putInt(part.method).putInt(part.crc)
+                        .putLong(part.compressedSize).putLong(part.size);
+                header.flip();
+                while (header.hasRemaining()) {
+                    out.write(header);
+                }
+                long copied = 0;
+                while (copied < part.compressedSize) {
+                    long n = source.transferTo(part.dataOffset + copied, part.compressedSize - copied, out);
+                    if (n <= 0) {
+                        throw new IOException("Unexpected end of data in " + part.name);
+                    }
+                    copied += n;
+                }
+            }
+            synchronized (this) {
+                Path target = directory.resolve(fileName);
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                long size = Files.size(target);
+                removePrefix(key.sheetPrefix(), fileName);
+                Long previous = index.put(fileName, size);
+                totalBytes += size - (previous == null ? 0 : previous);
+                evictOverflow();
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Drops every cached sheet of the given PKP.
+     */
+    public synchronized void invalidate(PkpPdf pkpPdf) throws IOException {
+        removePrefix(ReportCache.Key.identityPrefix(pkpPdf), null);
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private void removePrefix(String prefix, String keep) throws IOException {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (entry.getKey().startsWith(prefix) && !entry.getKey().equals(keep)) {
+                totalBytes -= entry.getValue();
+                Files.deleteIfExists(directory.resolve(entry.getKey()));
+                it.remove();
+            }
+        }
+    }
+
+    private void evictOverflow() throws IOException {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        // Always keep the most recent entry, even if it alone exceeds the budget.
+        while (totalBytes > maxBytes && index.size() > 1) {
+            Map.Entry<String, Long> eldest = it.next();
+            totalBytes -= eldest.getValue();
+            Files.deleteIfExists(directory.resolve(eldest.getKey()));
+            it.remove();
+        }
+    }
+
+    private void loadExisting() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(SUFFIX)) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort((a, b) -> {
+            try {
+                return Files.getLastModifiedTime(a).compareTo(Files.getLastModifiedTime(b));
+            } catch (IOException e) {
+                return 0;
+            }
+        });
+        synchronized (this) {
+            for (Path file : files) {
+                long size = Files.size(file);
+                index.put(file.getFileName().toString(), size);
+                totalBytes += size;
+            }
+            evictOverflow();
+        }
+    }
+
+    /**
+     * An open cached sheet; its compressed data starts at {@code part.dataOffset}.
+     */
+    static final class Fragment implements Closeable {
+        final ZipParts.Part part;
+        final FileChannel channel;
+
+        Fragment(ZipParts.Part part, FileChannel channel) {
+            this.part = part;
+            this.channel = channel;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Cache key: PKP identity, sheet, the sheet's layout and the version of its rows.
+     */
+    public static final class Key {
+
+        private final String sheetPrefix;
+        private final String version;
+
+        private Key(String sheetPrefix, String version) {
+            this.sheetPrefix = sheetPrefix;
+            this.version = version;
+        }
+
+        static Key of(PkpPdf pkpPdf, SheetSchema<?> schema, String dataVersion) {
+            String sheetPrefix = ReportCache.Key.identityPrefix(pkpPdf)
+                    + ReportCache.Key.sha256(schema.getSheetName()).substring(0, 8) + "-";
+            String version = FORMAT
+                    + '\u0000' + schema.layout()
+                    + '\u0000' + Workbook.class.getPackage().getImplementationVersion()
+                    + '\u0000' + dataVersion;
+            return new Key(sheetPrefix, version);
+        }
+
+        String fileName() {
+            return sheetPrefix + ReportCache.Key.sha256(sheetPrefix + '\u0000' + version).substring(0, 32) + SUFFIX;
+        }
+
+        String sheetPrefix() {
+            return sheetPrefix;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return sheetPrefix.equals(other.sheetPrefix) && version.equals(other.version);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sheetPrefix.hashCode() + version.hashCode();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.excel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Round-trip test of {@link ExcelService#writeWorkbookIncremental}: renders a workbook with
+ * cacheable sheets, re-exports it with those sheets spliced in from the
+ * {@link SheetFragmentCache} (also after reopening the cache from disk) and reads every
+ * result back with both JDK ZIP readers, which verify the CRCs and sizes of each part.
+ * Prints one line per step and exits with status 1 on the first failed check.
+ *
+ * Example: {@code java com.example.excel.SheetFragmentCacheTest}
+ */
+public class SheetFragmentCacheTest {
+
+    private static final LocalDate PKP_DATE = LocalDate.of(2024, 12, 31);
+    private static final String PKS_PART = "xl/worksheets/sheet3.xml";
+    private static final String CAR_PART = "xl/worksheets/sheet4.xml";
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("sheet-fragments");
+        try {
+            run(directory);
+        } catch (AssertionError e) {
+            System.out.println("FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("all steps passed");
+    }
+
+    private static void run(Path directory) throws IOException {
+        Map<String, String> versions = new HashMap<>();
+        versions.put(ExportSchemas.PKS_DETAILS.getSheetName(), "v1");
+        versions.put(ExportSchemas.CAR_RESULTS.getSheetName(), "v1");
+
+        SheetFragmentCache cache = new SheetFragmentCache(directory, 64L << 20);
+        ExcelService service = new ExcelService();
+        service.setSheetFragmentCache(cache);
+
+        Map<String, byte[]> first = export(service, versions, input("First comment", "Car"));
+        check(cache.getMisses() == 2 && cache.getHits() == 0,
+                "first export: hits=" + cache.getHits() + " misses=" + cache.getMisses());
+        check(contains(first.get(CAR_PART), "Car 7"), "Car_results sheet lacks its rows");
+        System.out.println("render and store: ok");
+
+        // New comment, same detail data: both versioned sheets come from the cache
+        Map<String, byte[]> second = export(service, versions, input("Second comment", "Car"));
+        check(cache.getHits() == 2, "second export: hits=" + cache.getHits());
+        check(equal(first.get(PKS_PART), second.get(PKS_PART)), "spliced PKS_details differs from the rendered one");
+        check(equal(first.get(CAR_PART), second.get(CAR_PART)), "spliced Car_results differs from the rendered one");
+        check(containsAnywhere(second, "Second comment"), "re-export lacks the new comment");
+        System.out.println("splice cached sheets: ok");
+
+        // A fresh cache instance picks the stored fragments up from disk
+        ExcelService restarted = new ExcelService();
+        SheetFragmentCache reopened = new SheetFragmentCache(directory, 64L << 20);
+        restarted.setSheetFragmentCache(reopened);
+        Map<String, byte[]> third = export(restarted, versions, input("Third comment", "Car"));
+        check(reopened.getHits() == 2, "reopened cache: hits=" + reopened.getHits());
+        check(equal(first.get(CAR_PART), third.get(CAR_PART)), "fragment read from disk differs");
+        System.out.println("reopen from disk: ok");
+
+        // A new version of one sheet is rendered again while the other is still spliced
+        versions.put(ExportSchemas.CAR_RESULTS.getSheetName(), "v2");
+        Map<String, byte[]> fourth = export(restarted, versions, input("Fourth comment", "Vehicle"));
+        check(reopened.getHits() == 3 && reopened.getMisses() == 1,
+                "new version: hits=" + reopened.getHits() + " misses=" + reopened.getMisses());
+        check(contains(fourth.get(CAR_PART), "Vehicle 7"), "re-rendered Car_results lacks the new rows");
+        check(equal(first.get(PKS_PART), fourth.get(PKS_PART)), "unchanged PKS_details was not spliced");
+        System.out.println("re-render changed sheet: ok");
+    }
+
+    /**
+     * Exports incrementally and returns the uncompressed parts, after checking that both
+     * {@link ZipInputStream} and {@link ZipFile} read the same, complete archive.
+     */
+    private static Map<String, byte[]> export(ExcelService service, Map<String, String> versions, ExportInput input)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.writeWorkbookIncremental(out, versions, input);
+        byte[] workbook = out.toByteArray();
+
+        Map<String, byte[]> streamed = new HashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(workbook))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                streamed.put(entry.getName(), zip.readAllBytes());
+            }
+        }
+
+        Path file = Files.createTempFile("incremental-", ".xlsx");
+        Map<String, byte[]> parts = new HashMap<>();
+        try {
+            Files.write(file, workbook);
+            try (ZipFile zip = new ZipFile(file.toFile())) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        parts.put(entry.getName(), in.readAllBytes());
+                    }
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        check(parts.keySet().equals(streamed.keySet()), "central directory and local entries differ");
+        for (Map.Entry<String, byte[]> part : parts.entrySet()) {
+            check(equal(part.getValue(), streamed.get(part.getKey())), "part " + part.getKey() + " reads differently");
+        }
+        check(parts.containsKey("xl/workbook.xml") && parts.containsKey(PKS_PART) && parts.containsKey(CAR_PART),
+                "missing parts: " + parts.keySet());
+        return parts;
+    }
+
+    private static ExportInput input(String comment, String carPrefix) {
+        PkpPdf pkpPdf = new PkpPdf();
+        pkpPdf.setPkp_name("PKP Splice");
+        pkpPdf.setPkp_date(PKP_DATE);
+        pkpPdf.setPkp_comment(comment);
+        pkpPdf.setPkp_comment_timestamp("2024-12-31T12:00:00");
+        pkpPdf.setPkp_comment_uuid("00000000-0000-0000-0000-000000000000");
+
+        List<KrfResult> pksDetails = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            KrfResult kr = new KrfResult();
+            kr.setPkp_id(1);
+            kr.setPks_id(i);
+            kr.setPkp_date(PKP_DATE);
+            kr.setPks_name("PKS " + i);
+            kr.setDimension("Accuracy");
+            kr.setRed(i % 7);
+            kr.setAmber(i % 11);
+            kr.setGreen(i % 13);
+            kr.setNa(i % 3);
+            kr.setRag_status((i % 2 == 0) ? "Green" : "Red");
+            pksDetails.add(kr);
+        }
+
+        List<CarResults> carResults = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            CarResults cr = new CarResults();
+            cr.setCar_id(i);
+            cr.setCar_name(carPrefix + " " + i);
+            cr.setDimension("Completeness");
+            cr.setRed("< " + (i % 50));
+            cr.setAmber("< " + (i % 80));
+            cr.setCar_score(i / 10.0);
+            cr.setCar_status((i % 3 == 0) ? "Amber" : "Green");
+            carResults.add(cr);
+        }
+
+        return ExportInput.of(pkpPdf, Collections.<PksPdf>emptyList(), Collections.<PkpResults>emptyList(),
+                pksDetails, carResults, Collections.<ExcludedCars>emptyList(),
+                Collections.<CarThresholds>emptyList());
+    }
+
+    private static boolean contains(byte[] part, String text) {
+        return part != null && new String(part, StandardCharsets.UTF_8).contains(text);
+    }
+
+    private static boolean containsAnywhere(Map<String, byte[]> parts, String text) {
+        for (byte[] part : parts.values()) {
+            if (contains(part, text)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean equal(byte[] a, byte[] b) {
+        return a != null && Arrays.equals(a, b);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
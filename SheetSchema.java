@@ -0,0 +1,465 @@
+package com.example.excel;
+
+import org.dhatim.fastexcel.writer.Worksheet;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Declarative description of a tabular worksheet: a bold header row followed by one row per bean.
+ *
+ * Each column binds its accessor (a method reference) once when the schema is built, so
+ * {@link #write(Worksheet, RowSource, FlushPolicy)} is a single tight loop over rows and
+ * columns with no per-row lookup or reflection. Schemas are immutable and shared across
+ * exports; see {@link ExportSchemas} for the PKP report sheets.
+ */
+public final class SheetSchema<T> {
+
+    /** Rows between progress callbacks; a power of two. */
+    static final int PROGRESS_INTERVAL = 1024;
+
+    /** Rows of an Excel worksheet, the header row included. */
+    public static final int MAX_ROWS = 1_048_576;
+
+    /** Data rows that fit on one worksheet below the header row. */
+    public static final int MAX_DATA_ROWS = MAX_ROWS - 1;
+
+    /** Default width of date columns, wide enough for {@code yyyy-mm-dd}. */
+    static final double DATE_COLUMN_WIDTH = 12;
+
+    /** Day 0 of Excel's 1900 date system; serials count days from here (from 1900-03-01 on). */
+    private static final long EXCEL_EPOCH_DAY = LocalDate.of(1899, 12, 30).toEpochDay();
+    private static final long EXCEL_LEAP_BUG_END = LocalDate.of(1900, 3, 1).toEpochDay();
+
+    /** Distinct values a {@link StringStorage#SHARED} column may add to the shared-strings table per sheet. */
+    public static final int DEFAULT_SHARED_STRINGS_PER_COLUMN = 4096;
+
+    enum ColumnType {
+        INT,
+        NUMBER,
+        TEXT,
+        DATE
+    }
+
+    static final class Column<T> {
+        final String header;
+        final ColumnType type;
+        final ToIntFunction<? super T> intAccessor;
+        final Function<? super T, ?> accessor;
+        final CellStyle style;
+        final double width;
+        final StringStorage storage;
+
+        Column(String header, ColumnType type, ToIntFunction<? super T> intAccessor,
+               Function<? super T, ?> accessor, CellStyle style, double width) {
+            this(header, type, intAccessor, accessor, style, width, StringStorage.SHARED);
+        }
+
+        private Column(String header, ColumnType type, ToIntFunction<? super T> intAccessor,
+                       Function<? super T, ?> accessor, CellStyle style, double width, StringStorage storage) {
+            this.header = header;
+            this.type = type;
+            this.intAccessor = intAccessor;
+            this.accessor = accessor;
+            this.style = style;
+            this.width = width;
+            this.storage = storage;
+        }
+
+        Column<T> withStorage(StringStorage storage) {
+            return new Column<>(header, type, intAccessor, accessor, style, width, storage);
+        }
+    }
+
+    private final String sheetName;
+    private final Column<T>[] columns;
+    private final ColumnStyles columnStyles;
+
+    private SheetSchema(String sheetName, Column<T>[] columns, ColumnStyles columnStyles) {
+        this.sheetName = sheetName;
+        this.columns = columns;
+        this.columnStyles = columnStyles;
+    }
+
+    public static <T> Builder<T> builder(String sheetName) {
+        return new Builder<>(sheetName);
+    }
+
+    public String getSheetName() {
+        return sheetName;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public long write(Worksheet sheet, RowSource<? extends T> rows, FlushPolicy flushPolicy) throws IOException {
+        return write(sheet, rows, flushPolicy, ExportListener.NONE);
+    }
+
+    /**
+     * Writes the header row and then every row of {@code rows} into {@code sheet},
+     * flushing and finishing the sheet according to {@code flushPolicy}. Progress is
+     * reported to {@code listener} every {@value #PROGRESS_INTERVAL} rows.
+     *
+     * @return the number of data rows written
+     * @throws IllegalStateException if there are more rows than fit on one worksheet
+     *                               ({@value #MAX_DATA_ROWS})
+     */
+    public long write(Worksheet sheet, RowSource<? extends T> rows, FlushPolicy flushPolicy,
+                      ExportListener listener) throws IOException {
+        return write(shard -> {
+            if (shard > 0) {
+                throw new IllegalStateException("Sheet " + sheetName + " has more than " + MAX_DATA_ROWS
+                        + " rows, which do not fit on one worksheet");
+            }
+            return sheet;
+        }, rows, flushPolicy, listener, true, sheetName);
+    }
+
+    /**
+     * Writes every row of {@code rows}, starting on worksheet {@code shards.apply(0)} and
+     * continuing on {@code shards.apply(1)}, {@code shards.apply(2)}, ... whenever a worksheet
+     * is full ({@value #MAX_DATA_ROWS} data rows). Each worksheet starts with the header row
+     * and is finished before the next one is requested. With {@code sharedStrings == false}
+     * every text cell, headers included, is stored inline, so the sheet XML does not refer to
+     * the workbook's shared-strings table and can be reused in another workbook
+     * (see {@link SheetFragmentCache}). Progress is reported per worksheet, under
+     * {@code name} and then the shard names ({@link #shardName}).
+     *
+     * @return the number of data rows written
+     */
+    long write(IntFunction<Worksheet> shards, RowSource<? extends T> rows, FlushPolicy flushPolicy,
+               ExportListener listener, boolean sharedStrings, String name) throws IOException {
+        Column<T>[] cols = columns;
+        int columnCount = cols.length;
+        String sheetName = name;
+        listener.sheetStarted(sheetName);
+
+        int shard = 0;
+        Worksheet sheet = shards.apply(shard);
+        writeHeader(sheet, sharedStrings);
+
+        // Data rows
+        // Distinct values seen per shared text column, bounded so huge exports cannot grow
+        // the workbook's shared-strings table without limit
+        @SuppressWarnings("unchecked")
+        Set<String>[] shared = new Set[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            if (sharedStrings && cols[c].type == ColumnType.TEXT && cols[c].storage == StringStorage.SHARED) {
+                shared[c] = new HashSet<>();
+            }
+        }
+
+        // Dates repeat across rows (pkp_date is the same on every row), so remember the last
+        // conversion per column instead of converting each time
+        LocalDate[] lastDates = new LocalDate[columnCount];
+        Double[] lastSerials = new Double[columnCount];
+
+        FlushPolicy.Flusher flusher = flushPolicy.start(sheet, columnStyles, 1);
+        int row = 1;
+        int unreported = 0;
+        long written = 0;
+        while (rows.hasNext()) {
+            if (row > MAX_DATA_ROWS) {
+                // Worksheet full: continue on the next shard
+                flusher.finish();
+                finished(listener, sheetName, unreported, row - 1);
+                sheetName = shardName(name, ++shard);
+                listener.sheetStarted(sheetName);
+                unreported = 0;
+                sheet = shards.apply(shard);
+                writeHeader(sheet, sharedStrings);
+                flusher = flushPolicy.start(sheet, columnStyles, 1);
+                row = 1;
+            }
+            T item = rows.next();
+            for (int c = 0; c < columnCount; c++) {
+                Column<T> col = cols[c];
+                switch (col.type) {
+                    case INT:
+                        sheet.value(row, c, col.intAccessor.applyAsInt(item));
+                        break;
+                    case NUMBER:
+                        Number number = (Number) col.accessor.apply(item);
+                        if (number == null) {
+                            empty(sheet, row, c, sharedStrings);
+                        } else {
+                            sheet.value(row, c, number);
+                        }
+                        break;
+                    case DATE:
+                        LocalDate date = (LocalDate) col.accessor.apply(item);
+                        if (date == null) {
+                            empty(sheet, row, c, sharedStrings);
+                        } else {
+                            if (!date.equals(lastDates[c])) {
+                                lastDates[c] = date;
+                                lastSerials[c] = excelSerial(date); // boxed once, not per row
+                            }
+                            sheet.value(row, c, lastSerials[c]);
+                        }
+                        break;
+                    default:
+                        String text = (String) col.accessor.apply(item);
+                        if (text == null || text.isEmpty()) {
+                            empty(sheet, row, c, sharedStrings);
+                        } else if (shared[c] != null && admit(shared[c], text)) {
+                            sheet.value(row, c, text);
+                        } else {
+                            sheet.inlineString(row, c, text);
+                        }
+                }
+            }
+            row++;
+            written++;
+            flusher.endRow(columnCount);
+            if (++unreported == PROGRESS_INTERVAL) {
+                listener.rowsWritten(sheetName, unreported);
+                unreported = 0;
+            }
+        }
+        flusher.finish();
+        finished(listener, sheetName, unreported, row - 1);
+        return written;
+    }
+
+    private static void finished(ExportListener listener, String sheetName, int unreported, long rows) {
+        if (unreported > 0) {
+            listener.rowsWritten(sheetName, unreported);
+        }
+        listener.sheetFinished(sheetName, rows);
+    }
+
+    private void writeHeader(Worksheet sheet, boolean sharedStrings) {
+        Column<T>[] cols = columns;
+        for (int c = 0; c < cols.length; c++) {
+            if (sharedStrings) {
+                sheet.value(0, c, cols[c].header);
+            } else {
+                sheet.inlineString(0, c, cols[c].header);
+            }
+            if (cols[c].width > 0) {
+                sheet.width(c, cols[c].width);
+            }
+        }
+        CellStyle.HEADER.apply(sheet, 0, 0, 0, cols.length - 1);
+    }
+
+    /**
+     * Worksheets needed for {@code rows} data rows ({@code -1} if unknown, counted as one).
+     */
+    static int shardsFor(long rows) {
+        return (rows <= MAX_DATA_ROWS) ? 1 : Math.toIntExact((rows + MAX_DATA_ROWS - 1) / MAX_DATA_ROWS);
+    }
+
+    /**
+     * Name of worksheet {@code shard} (0-based) of a sheet: the sheet name itself, then
+     * {@code name_2}, {@code name_3}, ...
+     */
+    static String shardName(String sheetName, int shard) {
+        return (shard == 0) ? sheetName : sheetName + "_" + (shard + 1);
+    }
+
+    /**
+     * Writes the header row and then every row of {@code rows} as delimited text. Values are
+     * written unstyled and in their natural text form: ints and numbers as digits, dates as
+     * ISO-8601, {@code null} as an empty field. Progress is reported like the worksheet variant.
+     *
+     * @return the number of data rows written
+     */
+    public long write(DelimitedWriter out, RowSource<? extends T> rows, ExportListener listener) throws IOException {
+        Column<T>[] cols = columns;
+        int columnCount = cols.length;
+        listener.sheetStarted(sheetName);
+
+        for (int c = 0; c < columnCount; c++) {
+            out.field(cols[c].header);
+        }
+        out.endRow();
+
+        long written = 0;
+        while (rows.hasNext()) {
+            T item = rows.next();
+            for (int c = 0; c < columnCount; c++) {
+                Column<T> col = cols[c];
+                switch (col.type) {
+                    case INT:
+                        out.field(col.intAccessor.applyAsInt(item));
+                        break;
+                    case NUMBER:
+                        out.field((Number) col.accessor.apply(item));
+                        break;
+                    case DATE:
+                        out.field((LocalDate) col.accessor.apply(item));
+                        break;
+                    default:
+                        out.field((String) col.accessor.apply(item));
+                }
+            }
+            out.endRow();
+            written++;
+            if ((written & (PROGRESS_INTERVAL - 1)) == 0) {
+                listener.rowsWritten(sheetName, PROGRESS_INTERVAL);
+            }
+        }
+        out.flush();
+
+        int unreported = (int) (written & (PROGRESS_INTERVAL - 1));
+        if (unreported > 0) {
+            listener.rowsWritten(sheetName, unreported);
+        }
+        listener.sheetFinished(sheetName, written);
+        return written;
+    }
+
+    private static void empty(Worksheet sheet, int row, int col, boolean sharedStrings) {
+        if (sharedStrings) {
+            sheet.value(row, col, "");
+        } else {
+            sheet.inlineString(row, col, "");
+        }
+    }
+
+    /**
+     * Everything about the schema that shapes the rendered sheet apart from the rows:
+     * headers, column types, styles, widths and string storage.
+     */
+    String layout() {
+        StringBuilder layout = new StringBuilder(sheetName);
+        for (Column<T> col : columns) {
+            layout.append('|').append(col.header)
+                    .append(',').append(col.type)
+                    .append(',').append(col.style)
+                    .append(',').append(col.width)
+                    .append(',').append(col.storage);
+        }
+        return layout.toString();
+    }
+
+    /**
+     * Excel serial day number of {@code date} in the 1900 date system. Combined with a date
+     * format ({@link CellStyle#DATE}) the cell displays, sorts and filters as a date.
+     */
+    static double excelSerial(LocalDate date) {
+        long epochDay = date.toEpochDay();
+        long serial = epochDay - EXCEL_EPOCH_DAY;
+        // Excel counts the non-existent 1900-02-29, so earlier dates are one day lower
+        return (epochDay < EXCEL_LEAP_BUG_END) ? serial - 1 : serial;
+    }
+
+    /**
+     * Whether {@code text} may be stored as a shared string: it already is one, or the
+     * column's budget has room for another.
+     */
+    private static boolean admit(Set<String> shared, String text) {
+        if (shared.contains(text)) {
+            return true;
+        }
+        if (shared.size() >= DEFAULT_SHARED_STRINGS_PER_COLUMN) {
+            return false;
+        }
+        shared.add(text);
+        return true;
+    }
+
+    public static final class Builder<T> {
+
+        private final String sheetName;
+        private final List<Column<T>> columns = new ArrayList<>();
+
+        private Builder(String sheetName) {
+            this.sheetName = sheetName;
+        }
+
+        public Builder<T> intColumn(String header, ToIntFunction<? super T> accessor) {
+            columns.add(new Column<T>(header, ColumnType.INT, accessor, null, null, 0));
+            return this;
+        }
+
+        /**
+         * Nullable numeric column; {@code null} is written as an empty cell.
+         */
+        public Builder<T> numberColumn(String header, Function<? super T, ? extends Number> accessor) {
+            columns.add(new Column<T>(header, ColumnType.NUMBER, null, accessor, null, 0));
+            return this;
+        }
+
+        public Builder<T> textColumn(String header, Function<? super T, String> accessor) {
+            return textColumn(header, accessor, null, 0);
+        }
+
+        public Builder<T> textColumn(String header, Function<? super T, String> accessor, CellStyle style) {
+            return textColumn(header, accessor, style, 0);
+        }
+
+        public Builder<T> textColumn(String header, Function<? super T, String> accessor, CellStyle style, double width) {
+            columns.add(new Column<T>(header, ColumnType.TEXT, null, accessor, style, width));
+            return this;
+        }
+
+        /**
+         * Stores the values of the column added last inline instead of as shared strings;
+         * use it for mostly unique text such as names and free-form reasons.
+         */
+        public Builder<T> inline() {
+            int last = columns.size() - 1;
+            if (last < 0 || columns.get(last).type != ColumnType.TEXT) {
+                throw new IllegalStateException("inline() applies to a text column");
+            }
+            columns.set(last, columns.get(last).withStorage(StringStorage.INLINE));
+            return this;
+        }
+
+        /**
+         * Date column written as native Excel dates in the {@link CellStyle#DATE} format.
+         */
+        public Builder<T> dateColumn(String header, Function<? super T, LocalDate> accessor) {
+            return dateColumn(header, accessor, CellStyle.DATE);
+        }
+
+        /**
+         * Date column with a custom style; the style should carry a date format, otherwise
+         * the cells display as plain serial numbers.
+         */
+        public Builder<T> dateColumn(String header, Function<? super T, LocalDate> accessor, CellStyle style) {
+            columns.add(new Column<T>(header, ColumnType.DATE, null, accessor, style, DATE_COLUMN_WIDTH));
+            return this;
+        }
+
+        @SuppressWarnings("unchecked")
+        public SheetSchema<T> build() {
+            if (columns.isEmpty()) {
+                throw new IllegalStateException("Sheet " + sheetName + " has no columns");
+            }
+            return new SheetSchema<>(sheetName, columns.toArray(new Column[0]), columnStyles());
+        }
+
+        /**
+         * Collapses adjacent columns sharing a style into a single band.
+         */
+        private ColumnStyles columnStyles() {
+            ColumnStyles styles = ColumnStyles.of();
+            int c = 0;
+            while (c < columns.size()) {
+                CellStyle style = columns.get(c).style;
+                int last = c;
+                while (last + 1 < columns.size() && columns.get(last + 1).style == style) {
+                    last++;
+                }
+                if (style != null) {
+                    styles.columns(c, last, style);
+                }
+                c = last + 1;
+            }
+            return styles;
+        }
+    }
+}
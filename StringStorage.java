@@ -0,0 +1,23 @@
+package com.example.excel;
+
+/**
+ * How a text column stores its values in the workbook.
+ */
+public enum StringStorage {
+
+    /**
+     * Values go to the workbook's shared-strings table and each cell only references them.
+     * Best for enumerated columns (dimension, RAG status, names repeated on every row).
+     * The number of distinct values a column may add is capped, see
+     * {@link SheetSchema#DEFAULT_SHARED_STRINGS_PER_COLUMN}; values beyond the cap are
+     * written inline.
+     */
+    SHARED,
+
+    /**
+     * Values are written into the cell itself. Best for mostly unique columns, which would
+     * otherwise grow the shared-strings table (held on the heap until the workbook is
+     * finished) by one entry per row.
+     */
+    INLINE
+}
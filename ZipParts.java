@@ -0,0 +1,283 @@
+package com.example.excel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Raw access to the parts of a ZIP file (an {@code .xlsx} is one), for re-assembling a
+ * workbook from parts of other files without inflating or deflating anything.
+ *
+ * {@link #read} lists the entries of a finished ZIP with the position of their compressed
+ * data; {@link Writer} writes a new ZIP from such entries, copying the compressed bytes as
+ * they are. Output is plain ZIP (no ZIP64), so it is limited to 4 GiB, far above any
+ * workbook Excel can open.
+ */
+final class ZipParts {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+
+    private static final int LOCAL_HEADER_BYTES = 30;
+    private static final int CENTRAL_HEADER_BYTES = 46;
+    private static final int END_BYTES = 22;
+    private static final long MAX_32 = 0xFFFFFFFFL;
+
+    /** Bit 3 of the flags: sizes and CRC follow the data instead of the local header. */
+    private static final int DATA_DESCRIPTOR_FLAG = 0x08;
+    private static final int VERSION = 20;
+
+    private ZipParts() {
+    }
+
+    /**
+     * One entry: its metadata and where its compressed data lives in the source file.
+     */
+    static final class Part {
+        final String name;
+        final int flags;
+        final int method;
+        final int dosTime;
+        final int crc;
+        final long compressedSize;
+        final long size;
+        final long dataOffset;
+
+        Part(String name, int flags, int method, int dosTime, int crc, long compressedSize, long size, long dataOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.dataOffset = dataOffset;
+        }
+
+        /**
+         * This part's data under another name (and timestamp).
+         */
+        Part renamed(Part as, long dataOffset) {
+            return new Part(as.name, flags, method, as.dosTime, crc, compressedSize, size, dataOffset);
+        }
+    }
+
+    /**
+     * Lists the entries of the ZIP in {@code file}, in central directory order.
+     */
+    static List<Part> read(FileChannel file) throws IOException {
+        long fileSize = file.size();
+        int tail = (int) Math.min(fileSize, END_BYTES + 0xFFFF);
+        ByteBuffer end = readFully(file, fileSize - tail, tail);
+        int eocd = -1;
+        for (int i = tail - END_BYTES; i >= 0; i--) {
+            if (end.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new ZipException("End of central directory not found");
+        }
+        long entries = end.getShort(eocd + 10) & 0xFFFF;
+        long directorySize = end.getInt(eocd + 12) & MAX_32;
+        long directoryOffset = end.getInt(eocd + 16) & MAX_32;
+        if (entries == 0xFFFF || directorySize == MAX_32 || directoryOffset == MAX_32) {
+            long locator = fileSize - tail + eocd - 20;
+            ByteBuffer loc = readFully(file, locator, 20);
+            if (loc.getInt(0) != ZIP64_LOCATOR) {
+                throw new ZipException("ZIP64 locator not found");
+            }
+            ByteBuffer eocd64 = readFully(file, loc.getLong(8), 56);
+            if (eocd64.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY) {
+                throw new ZipException("ZIP64 end of central directory not found");
+            }
+            entries = eocd64.getLong(32);
+            directorySize = eocd64.getLong(40);
+            directoryOffset = eocd64.getLong(48);
+        }
+
+        ByteBuffer directory = readFully(file, directoryOffset, Math.toIntExact(directorySize));
+        List<Part> parts = new ArrayList<>((int) entries);
+        int p = 0;
+        for (long e = 0; e < entries; e++) {
+            if (directory.getInt(p) != CENTRAL_HEADER) {
+                throw new ZipException("Bad central directory entry at " + (directoryOffset + p));
+            }
+            int flags = directory.getShort(p + 8) & 0xFFFF;
+            int method = directory.getShort(p + 10) & 0xFFFF;
+            int dosTime = directory.getInt(p + 12);
+            int crc = directory.getInt(p + 16);
+            long compressedSize = directory.getInt(p + 20) & MAX_32;
+            long size = directory.getInt(p + 24) & MAX_32;
+            int nameLength = directory.getShort(p + 28) & 0xFFFF;
+            int extraLength = directory.getShort(p + 30) & 0xFFFF;
+            int commentLength = directory.getShort(p + 32) & 0xFFFF;
+            long localOffset = directory.getInt(p + 42) & MAX_32;
+            byte[] name = new byte[nameLength];
+            directory.position(p + CENTRAL_HEADER_BYTES);
+            directory.get(name);
+
+            // ZIP64 extra field: the 64-bit values of whichever fields are saturated, in this order
+            int x = p + CENTRAL_HEADER_BYTES + nameLength;
+            int extraEnd = x + extraLength;
+            while (x + 4 <= extraEnd) {
+                int id = directory.getShort(x) & 0xFFFF;
+                int length = directory.getShort(x + 2) & 0xFFFF;
+                if (id == ZIP64_EXTRA) {
+                    int v = x + 4;
+                    if (size == MAX_32) {
+                        size = directory.getLong(v);
+                        v += 8;
+                    }
+                    if (compressedSize == MAX_32) {
+                        compressedSize = directory.getLong(v);
+                        v += 8;
+                    }
+                    if (localOffset == MAX_32) {
+                        localOffset = directory.getLong(v);
+                    }
+                }
+                x += 4 + length;
+            }
+
+            ByteBuffer local = readFully(file, localOffset, LOCAL_HEADER_BYTES);
+            if (local.getInt(0) != LOCAL_HEADER) {
+                throw new ZipException("Bad local header at " + localOffset);
+            }
+            long dataOffset = localOffset + LOCAL_HEADER_BYTES
+                    + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+            parts.add(new Part(new String(name, StandardCharsets.UTF_8), flags, method, dosTime, crc,
+                    compressedSize, size, dataOffset));
+            p += CENTRAL_HEADER_BYTES + nameLength + extraLength + commentLength;
+        }
+        return parts;
+    }
+
+    /**
+     * Writes a ZIP whose entries are copied raw from other files. Sizes and CRCs are known
+     * up front, so they go into the local headers and no data descriptors are written.
+     */
+    static final class Writer {
+
+        private final OutputStream out;
+        private final WritableByteChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocate(CENTRAL_HEADER_BYTES + 0xFFFF).order(ByteOrder.LITTLE_ENDIAN);
+        private final List<Part> written = new ArrayList<>();
+        private final List<Long> offsets = new ArrayList<>();
+        private long position;
+
+        Writer(OutputStream out) {
+            this.out = out;
+            this.channel = Channels.newChannel(out);
+        }
+
+        /**
+         * Appends {@code part}, copying its compressed data from {@code source}.
+         */
+        void copy(Part part, FileChannel source) throws IOException {
+            byte[] name = part.name.getBytes(StandardCharsets.UTF_8);
+            if (position + LOCAL_HEADER_BYTES + name.length + part.compressedSize > MAX_32
+                    || part.size >= MAX_32) {
+                throw new ZipException("Workbook too large to assemble: " + part.name);
+            }
+            header.clear();
+            header.putInt(LOCAL_HEADER)
+                    .putShort((short) VERSION)
+                    .putShort((short) (part.flags & ~DATA_DESCRIPTOR_FLAG))
+                    .putShort((short) part.method)
+                    .putInt(part.dosTime)
+                    .putInt(part.crc)
+                    .putInt((int) part.compressedSize)
+                    .putInt((int) part.size)
+                    .putShort((short) name.length)
+                    .putShort((short) 0)
+                    .put(name);
+            out.write(header.array(), 0, header.position());
+            offsets.add(position);
+            written.add(part);
+            position += header.position();
+
+            long from = part.dataOffset;
+            long remaining = part.compressedSize;
+            while (remaining > 0) {
+                long n = source.transferTo(from, remaining, channel);
+                if (n <= 0) {
+                    throw new ZipException("Unexpected end of data in " + part.name);
+                }
+                from += n;
+                remaining -= n;
+            }
+            position += part.compressedSize;
+        }
+
+        /**
+         * Writes the central directory; the stream is left open.
+         */
+        void finish() throws IOException {
+            long directoryOffset = position;
+            for (int i = 0; i < written.size(); i++) {
+                Part part = written.get(i);
+                byte[] name = part.name.getBytes(StandardCharsets.UTF_8);
+                header.clear();
+                header.putInt(CENTRAL_HEADER)
+                        .putShort((short) VERSION)
+                        .putShort((short) VERSION)
+                        .putShort((short) (part.flags & ~DATA_DESCRIPTOR_FLAG))
+                        .putShort((short) part.method)
+                        .putInt(part.dosTime)
+                        .putInt(part.crc)
+                        .putInt((int) part.compressedSize)
+                        .putInt((int) part.size)
+                        .putShort((short) name.length)
+                        .putShort((short) 0)  // extra
+                        .putShort((short) 0)  // comment
+                        .putShort((short) 0)  // disk
+                        .putShort((short) 0)  // internal attributes
+                        .putInt(0)            // external attributes
+                        .putInt(offsets.get(i).intValue())
+                        .put(name);
+                out.write(header.array(), 0, header.position());
+                position += header.position();
+            }
+            long directorySize = position - directoryOffset;
+            if (position > MAX_32 || written.size() > 0xFFFF) {
+                throw new ZipException("Workbook too large to assemble");
+            }
+            header.clear();
+            header.putInt(END_OF_CENTRAL_DIRECTORY)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) written.size())
+                    .putShort((short) written.size())
+                    .putInt((int) directorySize)
+                    .putInt((int) directoryOffset)
+                    .putShort((short) 0);
+            out.write(header.array(), 0, header.position());
+            position += header.position();
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel file, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}